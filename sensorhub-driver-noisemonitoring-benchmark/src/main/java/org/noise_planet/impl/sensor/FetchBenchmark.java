@@ -0,0 +1,177 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.opengis.swe.v20.DataBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.api.common.SensorHubException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * <p>
+ * Throughput of the whole fetch, parse and publish path of the fast acoustic output against an in-process
+ * station stub. One operation is one request of {@link #rows} rows on a kept-alive connection,
+ * run by the hub {@link HttpFetchEngine} as the polling task would do.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchBenchmark
+{
+    @Param({"80", "800", "8000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    @Param({"false", "true"})
+    public boolean recycle;
+
+    private HttpServer server;
+    private HttpFetchEngine fetchEngine;
+    private NoiseMonitoringSensor driver;
+    private String url;
+    private Consumer<DataBlock> copyingConsumer;
+
+    @Setup
+    public void setUp() throws SensorHubException, IOException
+    {
+        final byte[] body = StationPayloads.fastCsv(rows);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(body);
+        gzipOutputStream.close();
+        final byte[] gzipBody = compressed.toByteArray();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/fast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] response = body;
+                if (accepted != null && accepted.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    response = gzipBody;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/csv");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/fast";
+
+        NoiseMonitoringConfig config = new NoiseMonitoringConfig();
+        config.id = UUID.randomUUID().toString();
+        config.httpWeatherStationUrl = "";
+        config.httpFastAcousticStationUrl = url;
+        config.httpSlowAcousticStationUrl = "";
+        config.httpSamplesAcousticStationUrl = "";
+        config.httpCompression = compression;
+        config.recycleDataBlocks = recycle;
+        // each invocation parses the same rows again
+        config.deduplicateRows = false;
+        driver = new NoiseMonitoringSensor();
+        driver.init(config);
+        final FastAcousticOutput output = driver.fastAcousticDataInterface;
+        copyingConsumer = new Consumer<DataBlock>() {
+            @Override
+            public void accept(DataBlock dataBlock)
+            {
+                output.recordPublisher.accept(dataBlock);
+                output.releaseRecord(dataBlock);
+            }
+        };
+        fetchEngine = HttpFetchEngine.acquire(1);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        HttpFetchEngine.release();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public HttpFetchEngine.FetchResult fetchFast() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        final FastAcousticOutput output = driver.fastAcousticDataInterface;
+        NoiseMonitoringConfig config = driver.getConfiguration();
+        return fetchEngine.fetch(url, config.httpTimeout, config.httpCompression, null,
+                new HttpFetchEngine.ResponseHandler() {
+                    @Override
+                    public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException
+                    {
+                        if (recycle) {
+                            // publish each record to a consumer storing a copy, which gives the block back
+                            output.parseResult(CsvByteReader.withThreadBuffer(inputStream), copyingConsumer);
+                        } else {
+                            // parse and publish each record, as the polling task does
+                            output.readResponse(inputStream, connection.getContentType());
+                        }
+                    }
+                }).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sensorhub.api.common.SensorHubException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Throughput of the response parsers, from the response bytes to the assembled records.
+ * One operation parses a whole response of {@link #rows} rows, the backlog a station sends after
+ * 10 seconds, after a full page and after a 15 minutes outage for the fast acoustic endpoint.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+    @Param({"80", "800", "8000"})
+    public int rows;
+
+    private NoiseMonitoringSensor driver;
+    private byte[] fastCsv;
+    private byte[] fastFrames;
+    private byte[] slowCsv;
+    private byte[] weatherCsv;
+    private byte[] stateCsv;
+
+    @Setup
+    public void setUp() throws SensorHubException, IOException
+    {
+        NoiseMonitoringConfig config = new NoiseMonitoringConfig();
+        config.id = UUID.randomUUID().toString();
+        config.httpWeatherStationUrl = "";
+        config.httpFastAcousticStationUrl = "";
+        config.httpSlowAcousticStationUrl = "";
+        config.httpSamplesAcousticStationUrl = "";
+        // each invocation parses the same rows again
+        config.deduplicateRows = false;
+        driver = new NoiseMonitoringSensor();
+        driver.init(config);
+        fastCsv = StationPayloads.fastCsv(rows);
+        fastFrames = StationPayloads.fastFrames(rows);
+        slowCsv = StationPayloads.slowCsv(rows);
+        weatherCsv = StationPayloads.weatherCsv(rows);
+        stateCsv = StationPayloads.stateCsv(rows);
+    }
+
+    private static Consumer<DataBlock> sink(final Blackhole blackhole)
+    {
+        return new Consumer<DataBlock>() {
+            @Override
+            public void accept(DataBlock dataBlock)
+            {
+                blackhole.consume(dataBlock);
+            }
+        };
+    }
+
+    @Benchmark
+    public void parseFast(Blackhole blackhole) throws IOException
+    {
+        driver.fastAcousticDataInterface.parseResult(new CsvByteReader(new ByteArrayInputStream(fastCsv)),
+                sink(blackhole));
+    }
+
+    @Benchmark
+    public void parseFastBinary(Blackhole blackhole) throws IOException
+    {
+        driver.fastAcousticDataInterface.parseResult(new AcousticFrameReader(new ByteArrayInputStream(fastFrames),
+                FastAcousticOutput.freqs.length + 2), sink(blackhole));
+    }
+
+    @Benchmark
+    public void parseSlow(Blackhole blackhole) throws IOException
+    {
+        driver.slowAcousticDataInterface.parseResult(new CsvByteReader(new ByteArrayInputStream(slowCsv)),
+                sink(blackhole));
+    }
+
+    @Benchmark
+    public void parseWeather(Blackhole blackhole) throws IOException
+    {
+        driver.weatherDataInterface.parseResult(new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(weatherCsv), StandardCharsets.UTF_8)), sink(blackhole));
+    }
+
+    @Benchmark
+    public void parseState(Blackhole blackhole) throws IOException
+    {
+        driver.stateOutput.parseResult(new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(stateCsv), StandardCharsets.UTF_8)), sink(blackhole));
+    }
+}
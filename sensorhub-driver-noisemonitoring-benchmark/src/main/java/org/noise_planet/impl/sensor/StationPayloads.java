@@ -0,0 +1,155 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * <p>
+ * Generate station responses with the same layout and value ranges as the station endpoints.
+ * The random generator is seeded so every benchmark run parses the same bytes.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public final class StationPayloads
+{
+    private static final long SEED = 1528448319L;
+    // 2018-06-08T09:38:39.844Z
+    private static final double START_TIME = 1528448319.844;
+
+    private StationPayloads()
+    {
+    }
+
+
+    /**
+     * @param rows Number of 125 ms rows
+     * @return Fast acoustic CSV: timestamp, leq, laeq, leq 20 Hz ... leq 12.5 kHz
+     */
+    public static byte[] fastCsv(int rows)
+    {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(rows * 200);
+        for (int row = 0; row < rows; row++) {
+            double leq = 55 + random.nextGaussian() * 8;
+            sb.append(String.format(Locale.ROOT, "%.3f,%.2f,%.2f", START_TIME + row * 0.125, leq,
+                    leq - 6 + random.nextGaussian()));
+            for (int band = 0; band < FastAcousticOutput.freqs.length; band++) {
+                sb.append(String.format(Locale.ROOT, ",%.2f", leq - 15 + random.nextGaussian() * 6));
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @param rows Number of 125 ms rows
+     * @return Same rows as {@link #fastCsv(int)} in the binary frame format
+     */
+    public static byte[] fastFrames(int rows) throws IOException
+    {
+        Random random = new Random(SEED);
+        int columns = FastAcousticOutput.freqs.length + 2;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(AcousticFrameReader.HEADER_SIZE +
+                rows * (8 + columns * 2));
+        AcousticFrameWriter writer = new AcousticFrameWriter(outputStream, columns);
+        float[] values = new float[columns];
+        for (int row = 0; row < rows; row++) {
+            double leq = 55 + random.nextGaussian() * 8;
+            values[0] = (float) leq;
+            values[1] = (float) (leq - 6 + random.nextGaussian());
+            for (int band = 0; band < FastAcousticOutput.freqs.length; band++) {
+                values[band + 2] = (float) (leq - 15 + random.nextGaussian() * 6);
+            }
+            writer.writeFrame(START_TIME + row * 0.125, values);
+        }
+        return outputStream.toByteArray();
+    }
+
+
+    /**
+     * @param rows Number of 1 s rows
+     * @return Slow acoustic CSV: timestamp, leq, laeq
+     */
+    public static byte[] slowCsv(int rows)
+    {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(rows * 24);
+        for (int row = 0; row < rows; row++) {
+            double leq = 55 + random.nextGaussian() * 8;
+            sb.append(String.format(Locale.ROOT, "%d,%.2f,%.2f\n", (long) START_TIME + row, leq,
+                    leq - 6 + random.nextGaussian()));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @param rows Number of 1 min rows
+     * @return Weather CSV: timestamp in ms, temperature in, temperature out, humidity
+     */
+    public static byte[] weatherCsv(int rows)
+    {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(rows * 32);
+        for (int row = 0; row < rows; row++) {
+            double temperature = 20 + random.nextGaussian() * 5;
+            sb.append(String.format(Locale.ROOT, "%d,%.2f,%.2f,%.1f\n", (long) (START_TIME * 1000) + row * 60000L,
+                    temperature + 30, temperature, 40 + random.nextDouble() * 50));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @param rows Number of 1 min rows
+     * @return Node state CSV: timestamp in ms, battery level, missed leq, missed spectrum
+     */
+    public static byte[] stateCsv(int rows)
+    {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(rows * 28);
+        for (int row = 0; row < rows; row++) {
+            sb.append(String.format(Locale.ROOT, "%d,%.2f,%d,%d\n", (long) (START_TIME * 1000) + row * 60000L,
+                    100 - row * 50.0 / rows, random.nextInt(3), random.nextInt(3)));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
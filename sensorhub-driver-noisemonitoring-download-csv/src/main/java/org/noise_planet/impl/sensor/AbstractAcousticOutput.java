@@ -0,0 +1,268 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.vast.swe.SWEHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Base class of the acoustic outputs. Rows of a fixed number of float columns are parsed into a row buffer, from the
+ * CSV or the binary frame format, and published as records of a fixed number of rows. The rows of an incomplete record
+ * are carried over the polls, and kept in a spool file when {@link NoiseMonitoringConfig#spoolDirectory} is set.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public abstract class AbstractAcousticOutput extends AbstractHttpOutput
+{
+    private DataComponent acousticData;
+    private DataEncoding acousticEncoding;
+    private int valuesPerRecord;
+
+    // Rows of the incomplete record, carried over the polls until valuesPerRecord rows are received
+    private AcousticRowBuffer cachedRows;
+    private AcousticRecordBuilder recordBuilder;
+    private DataBlockPool recordPool;
+    // Copy of cachedRows on disk, null if the spool is disabled
+    private volatile RowSpool spool;
+    private final List<AcousticRowListener> rowListeners = new CopyOnWriteArrayList<>();
+
+    AbstractAcousticOutput(NoiseMonitoringSensor parentSensor)
+    {
+        super(parentSensor);
+    }
+
+
+    /**
+     * Called by the implementations once their record description is built
+     * @param recordDescription Record with a time stamp field followed by arrays of valuesPerRecord floats
+     * @param columnFields Name of the array fields, in the column order of the rows
+     * @param valuesPerRecord Number of rows per record
+     */
+    protected void initRecord(DataComponent recordDescription, String[] columnFields, int valuesPerRecord)
+    {
+        this.acousticData = recordDescription;
+        this.valuesPerRecord = valuesPerRecord;
+        cachedRows = new AcousticRowBuffer(columnFields.length, valuesPerRecord);
+        acousticEncoding = new SWEHelper().newTextEncoding(",", "\n");
+        recordBuilder = new AcousticRecordBuilder(recordDescription, "time", columnFields, valuesPerRecord);
+        recordPool = createRecordPool(recordDescription);
+    }
+
+    /**
+     * Decode the rows into the row buffer and give each record of valuesPerRecord rows to the consumer as soon as
+     * its last row has been read. The rows of an incomplete record stay in the buffer until the next call.
+     * @param reader CSV rows with the time stamp followed by the columns of the record
+     * @param consumer Receives the completed records
+     * @throws IOException On read error
+     */
+    public void parseResult(CsvByteReader reader, Consumer<DataBlock> consumer) throws IOException {
+        final int columns = cachedRows.getColumnCount();
+        while (reader.nextLine()) {
+            double time = reader.nextDouble();
+            if (isDuplicate(time)) {
+                // already received, the values are not parsed
+                continue;
+            }
+            int slot = cachedRows.appendRow(time);
+            try {
+                for (int column = 0; column < columns; column++) {
+                    cachedRows.setValue(slot, column, reader.nextFloat());
+                }
+            } catch (NumberFormatException ex) {
+                cachedRows.removeLast();
+                throw ex;
+            }
+            rowParsed(time, consumer);
+        }
+    }
+
+    /**
+     * Decode the binary frames into the row buffer and give each record of valuesPerRecord rows to the consumer as
+     * soon as its last frame has been read. Gives the same records as the CSV format.
+     * @param reader Binary frames with the same columns as the CSV format
+     * @param consumer Receives the completed records
+     * @throws IOException On read error
+     */
+    public void parseResult(AcousticFrameReader reader, Consumer<DataBlock> consumer) throws IOException {
+        final int columns = cachedRows.getColumnCount();
+        while (reader.nextFrame()) {
+            double time = reader.getTime();
+            if (isDuplicate(time)) {
+                continue;
+            }
+            int slot = cachedRows.appendRow(time);
+            for (int column = 0; column < columns; column++) {
+                cachedRows.setValue(slot, column, reader.getValue(column));
+            }
+            rowParsed(time, consumer);
+        }
+    }
+
+    /**
+     * Decode the rows and collect the completed records
+     * @param reader CSV rows
+     * @return Completed records
+     * @throws IOException On read error
+     */
+    public List<DataBlock> parseResult(CsvByteReader reader) throws IOException {
+        List<DataBlock> dataBlockList = new ArrayList<>();
+        parseResult(reader, dataBlockList::add);
+        return dataBlockList;
+    }
+
+    private void rowParsed(double time, Consumer<DataBlock> consumer) throws IOException {
+        spoolLastRow();
+        notifyRowListeners();
+        rowReceived(time);
+        pushCompleteRecord(consumer);
+    }
+
+    private void pushCompleteRecord(Consumer<DataBlock> consumer) throws IOException {
+        if (cachedRows.size() == valuesPerRecord) {
+            DataBlock dataBlock = recordBuilder.build(cachedRows, recordPool.acquire());
+            cachedRows.removeFirst(valuesPerRecord);
+            // Push block
+            consumer.accept(dataBlock);
+            RowSpool rowSpool = spool;
+            if (rowSpool != null) {
+                rowSpool.consume(valuesPerRecord);
+            }
+        }
+    }
+
+    private void spoolLastRow() throws IOException {
+        RowSpool rowSpool = spool;
+        if (rowSpool != null) {
+            rowSpool.append(cachedRows, cachedRows.size() - 1);
+        }
+    }
+
+    private void notifyRowListeners() {
+        for (AcousticRowListener listener : rowListeners) {
+            listener.rowReceived(cachedRows, cachedRows.size() - 1);
+        }
+    }
+
+    /**
+     * @param listener Receives each row as soon as it is parsed
+     */
+    public void addRowListener(AcousticRowListener listener) {
+        rowListeners.add(listener);
+    }
+
+    @Override
+    protected void openStorage() throws IOException {
+        if (spool == null && !getParentModule().getConfiguration().spoolDirectory.isEmpty()) {
+            RowSpool rowSpool = RowSpool.open(getSpoolFile(), cachedRows.getColumnCount(), valuesPerRecord * 2);
+            cachedRows.clear();
+            rowSpool.replay(cachedRows);
+            restoreCursor(rowSpool.getCursor());
+            spool = rowSpool;
+        }
+    }
+
+    @Override
+    protected void closeStorage() throws IOException {
+        RowSpool rowSpool = spool;
+        spool = null;
+        if (rowSpool != null) {
+            rowSpool.close();
+        }
+    }
+
+    /**
+     * @return Number of rows of the incomplete record
+     */
+    @Override
+    public int getPendingRowCount() {
+        return cachedRows.size();
+    }
+
+    @Override
+    protected boolean isStreamingSupported() {
+        return true;
+    }
+
+    @Override
+    protected String getAcceptedContentTypes() {
+        if (getParentModule().getConfiguration().binaryFormat) {
+            return AcousticFrameReader.CONTENT_TYPE + ", text/csv;q=0.5";
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    protected void readResponse(InputStream inputStream, String contentType) throws IOException
+    {
+        if (contentType != null && contentType.startsWith(AcousticFrameReader.CONTENT_TYPE)) {
+            parseResult(new AcousticFrameReader(inputStream, cachedRows.getColumnCount()), recordPublisher);
+        } else {
+            parseResult(CsvByteReader.withThreadBuffer(inputStream), recordPublisher);
+        }
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+    	// approximate update interval in second
+        return 5.0;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return acousticData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return acousticEncoding;
+    }
+}
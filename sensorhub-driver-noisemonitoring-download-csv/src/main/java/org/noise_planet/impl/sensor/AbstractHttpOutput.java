@@ -0,0 +1,684 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Base class of the outputs pulling CSV records from a station http endpoint.
+ * The polling task is registered on the hub {@link PollingScheduler} and the request is run by the hub
+ * {@link HttpFetchEngine}. The response is parsed while it is read from the socket and each record is published
+ * as soon as it is complete.
+ * </p>
+ * <p>
+ * In incremental mode the timestamp of the last received row is sent to the station, which only returns
+ * newer rows, at most {@link NoiseMonitoringConfig#pageSize} rows per request. Pages are requested until
+ * the station has nothing more to send.
+ * </p>
+ * <p>
+ * With {@link NoiseMonitoringConfig#adaptivePolling} the next poll is planned when the previous request ends:
+ * sooner while responses grow, at the nominal period while they shrink, and later while they are empty or failing,
+ * within {@link NoiseMonitoringConfig#minPollingPeriod} and {@link NoiseMonitoringConfig#maxPollingPeriod}.
+ * </p>
+ * <p>
+ * With {@link NoiseMonitoringConfig#streaming}, the outputs supporting it keep a connection open instead of polling,
+ * see {@link StreamingClient}.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public abstract class AbstractHttpOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+{
+    private volatile ScheduledFuture<?> pollTask;
+    // Guards pollTask, the adaptive mode reschedules the poll from the fetch engine threads
+    private final Object pollLock = new Object();
+    private volatile boolean polling = false;
+    // Delay in ms before the next poll in adaptive mode, and rows of the previous response
+    private volatile long pollDelay;
+    private int lastResponseRows = 0;
+    private StreamingClient streamingClient;
+    // Last stopped stream, its thread may still be parsing
+    private volatile StreamingClient stoppedStreamingClient;
+    // Only one request in flight per output, a poll is skipped while the previous one is not finished
+    private final AtomicBoolean fetching = new AtomicBoolean(false);
+    // Timestamp of the last row received from the station, NaN if nothing has been received yet
+    private volatile double cursor = Double.NaN;
+    // Number of rows received in the current page
+    private int pageRows = 0;
+    private final IngestMetrics metrics = new IngestMetrics();
+    // Time stamps of the rows already received, created on the first row
+    private RowDeduplicator deduplicator;
+    // A row older than the deduplication window has been dropped in the current response
+    private boolean lateRowLogged = false;
+    // Number of released records kept for reuse when recycling is enabled
+    private static final int RECYCLED_RECORDS = 4;
+    // Gets back the records released by their consumers, null if the records are not recycled
+    private DataBlockPool blockPool;
+    // The latest record has been released, it goes back to the pool once it is no longer the latest one
+    private boolean latestReleased = false;
+    private final Object releaseLock = new Object();
+    // Publish each record as soon as it has been parsed
+    protected final Consumer<DataBlock> recordPublisher = new Consumer<DataBlock>() {
+        @Override
+        public void accept(DataBlock dataBlock)
+        {
+            publish(dataBlock);
+        }
+    };
+
+    AbstractHttpOutput(NoiseMonitoringSensor parentSensor)
+    {
+        super(parentSensor);
+    }
+
+
+    /**
+     * @return Station endpoint, empty if this output is disabled
+     */
+    public abstract String getUrl();
+
+
+    /**
+     * Parse the response body and give each completed record to {@link #recordPublisher}.
+     * Called on a fetch engine thread, never concurrently for the same output.
+     * @param inputStream Response body
+     * @param contentType Content type of the response, may be null
+     * @throws IOException On read or parse error
+     */
+    protected abstract void readResponse(InputStream inputStream, String contentType) throws IOException;
+
+
+    /**
+     * @return Value of the Accept request header, null to let the station choose
+     */
+    protected String getAcceptedContentTypes()
+    {
+        return null;
+    }
+
+
+    /**
+     * @return True if the rows can be received from a long-lived connection in streaming mode
+     */
+    protected boolean isStreamingSupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * @return Value of the Accept request header in streaming mode
+     */
+    protected String getStreamedContentTypes()
+    {
+        String accepted = getAcceptedContentTypes();
+        return EventStreamInputStream.CONTENT_TYPE + ", " + (accepted != null ? accepted : "text/csv;q=0.5");
+    }
+
+
+    /**
+     * @return Url of the stream, starting after the last received row
+     */
+    String getStreamUrl()
+    {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        String url = getUrl();
+        double lastTime = cursor;
+        if (Double.isNaN(lastTime)) {
+            return url;
+        }
+        return url + (url.indexOf('?') >= 0 ? '&' : '?') + config.cursorParameter + '=' + formatCursor(lastTime);
+    }
+
+
+    protected void sendMeasurement()
+    {
+        if (!fetching.compareAndSet(false, true)) {
+            parentSensor.getLogger().debug("Skip {} poll, previous request still running", getName());
+            metrics.pollSkipped();
+            return;
+        }
+        HttpFetchEngine.FetchLane fetchLane = getParentModule().getFetchLane();
+        if (fetchLane == null || !polling) {
+            // stopped while this poll was starting
+            fetchEnded();
+            return;
+        }
+        fetchPage(fetchLane);
+    }
+
+
+    private void fetchPage(final HttpFetchEngine.FetchLane fetchLane)
+    {
+        final NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        pageRows = 0;
+        final double pageCursor = cursor;
+        final long requestTime = System.nanoTime();
+        fetchLane.fetch(getRequestUrl(), config.httpTimeout, config.httpCompression, getAcceptedContentTypes(),
+                new HttpFetchEngine.ResponseHandler() {
+                    @Override
+                    public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException
+                    {
+                        parseResponse(inputStream, connection.getContentType(), System.nanoTime() - requestTime);
+                    }
+                }).whenComplete(new BiConsumer<HttpFetchEngine.FetchResult, Throwable>() {
+                    @Override
+                    public void accept(HttpFetchEngine.FetchResult result, Throwable ex)
+                    {
+                        if (result != null) {
+                            metrics.bytesReceived(result.getWireBytes(), result.getContentBytes());
+                        }
+                        if (ex == null && config.incrementalFetch && pageRows >= config.pageSize && pollTask != null) {
+                            if (cursorMoved(pageCursor)) {
+                                // the station has more rows, fetch the next page right now
+                                fetchPage(fetchLane);
+                                return;
+                            }
+                            // the station ignores the cursor, wait for the next poll instead of looping
+                            parentSensor.getLogger().warn("{} full page did not move the cursor", getName());
+                        }
+                        fetchEnded();
+                        if (ex != null) {
+                            metrics.requestFailed();
+                            parentSensor.getLogger().error("Error while receiving data", ex);
+                        }
+                        if (config.adaptivePolling) {
+                            // a failing station is handled as an empty one, backing off
+                            scheduleNextPoll(nextPollDelay(ex == null ? pageRows : 0));
+                        }
+                    }
+                });
+    }
+
+
+    private void fetchEnded()
+    {
+        synchronized (fetching) {
+            fetching.set(false);
+            fetching.notifyAll();
+        }
+    }
+
+
+    /**
+     * Wait for the end of the request or stream still running after {@link #stop()}, so the local storage can be
+     * closed without a parser writing in it
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if nothing is running anymore
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean awaitIdle(long timeout) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (fetching) {
+            while (fetching.get()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                fetching.wait(remaining);
+            }
+        }
+        StreamingClient client = stoppedStreamingClient;
+        return client == null || client.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+
+    /**
+     * @param pageCursor Cursor before the last page was requested
+     * @return True if the last page received rows newer than the cursor
+     */
+    private boolean cursorMoved(double pageCursor)
+    {
+        double lastTime = cursor;
+        return !Double.isNaN(lastTime) && (Double.isNaN(pageCursor) || lastTime > pageCursor);
+    }
+
+
+    /**
+     * Read a response and update the metrics
+     * @param inputStream Response body
+     * @param contentType Content type of the response, may be null
+     * @param latency Delay in ns between the request submission and the response
+     * @throws IOException On read or parse error
+     */
+    void parseResponse(InputStream inputStream, String contentType, long latency) throws IOException
+    {
+        long responseTime = System.nanoTime();
+        lateRowLogged = false;
+        metrics.responseReceived(latency);
+        long publishTime = metrics.getPublishTime();
+        // in streaming mode the reads block until the station sends the next rows
+        CountingInputStream body = new CountingInputStream(inputStream);
+        try {
+            readResponse(body, contentType);
+        } finally {
+            // records are published while parsing, do not count them twice
+            metrics.responseParsed(System.nanoTime() - responseTime - body.getReadTime()
+                    - (metrics.getPublishTime() - publishTime));
+        }
+    }
+
+
+    /**
+     * Plan the next poll in adaptive mode from the number of rows of the last response
+     * @param rows Number of rows of the last response, 0 on failure
+     * @return Delay in ms before the next poll
+     */
+    long nextPollDelay(int rows)
+    {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        long delay;
+        if (rows == 0) {
+            delay = pollDelay * 2;
+        } else if (rows > lastResponseRows) {
+            delay = pollDelay / 2;
+        } else {
+            delay = getNominalPollDelay();
+        }
+        lastResponseRows = rows;
+        pollDelay = Math.max(config.minPollingPeriod, Math.min(config.maxPollingPeriod, delay));
+        return pollDelay;
+    }
+
+
+    void resetPollDelay()
+    {
+        pollDelay = getNominalPollDelay();
+        lastResponseRows = 0;
+    }
+
+
+    /**
+     * @return Polling period in ms at the station data rate, within the configured bounds in adaptive mode
+     */
+    long getNominalPollDelay()
+    {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        long period = (long)(getAverageSamplingPeriod()*1000);
+        if (config.adaptivePolling) {
+            period = Math.max(config.minPollingPeriod, Math.min(config.maxPollingPeriod, period));
+        }
+        return period;
+    }
+
+
+    /**
+     * @return Delay in ms between the end of the last request and the next poll in adaptive mode
+     */
+    public long getPollDelay()
+    {
+        return pollDelay;
+    }
+
+
+    private void scheduleNextPoll(long delay)
+    {
+        synchronized (pollLock) {
+            if (!polling) {
+                return;
+            }
+            pollTask = getParentModule().getScheduler().schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    sendMeasurement();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * @return Url of the next request, with the cursor parameters in incremental mode
+     */
+    String getRequestUrl()
+    {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        String url = getUrl();
+        if (!config.incrementalFetch) {
+            return url;
+        }
+        StringBuilder sb = new StringBuilder(url);
+        sb.append(url.indexOf('?') >= 0 ? '&' : '?');
+        sb.append(config.pageSizeParameter).append('=').append(config.pageSize);
+        double lastTime = cursor;
+        if (!Double.isNaN(lastTime)) {
+            sb.append('&').append(config.cursorParameter).append('=').append(formatCursor(lastTime));
+        }
+        return sb.toString();
+    }
+
+
+    static String formatCursor(double time)
+    {
+        if (time == Math.rint(time)) {
+            return Long.toString((long) time);
+        } else {
+            // rows are time stamped with a millisecond resolution
+            return String.format(Locale.ROOT, "%.3f", time);
+        }
+    }
+
+
+    /**
+     * Called by implementations right after reading the time stamp of a row, so a row already received is skipped
+     * without parsing its values
+     * @param time Row timestamp, as sent by the station
+     * @return True if the row has already been received, or is older than the deduplication window, and must be dropped
+     */
+    protected boolean isDuplicate(double time)
+    {
+        if (deduplicator != null && deduplicator.isDuplicate(time)) {
+            // the row still fills the page sent by the station
+            pageRows++;
+            if (deduplicator.isLate(time)) {
+                metrics.lateRowDropped();
+                if (!lateRowLogged) {
+                    lateRowLogged = true;
+                    parentSensor.getLogger().warn("{} drops the rows older than the deduplication window, from {}",
+                            getName(), formatCursor(time));
+                }
+            } else {
+                metrics.rowDropped();
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * @return Time stamps of two different rows of this output are at least this far apart, in the unit of the
+     * time stamps sent by the station
+     */
+    protected double getRowResolution()
+    {
+        return 1;
+    }
+
+
+    /**
+     * Must be called by implementations for each row of the response once all its values have been parsed, in order
+     * to move the fetch cursor. A malformed row is then requested again.
+     * @param time Row timestamp, as sent by the station
+     */
+    protected void rowReceived(double time)
+    {
+        pageRows++;
+        metrics.rowParsed();
+        if (getParentModule().getConfiguration().deduplicateRows) {
+            getDeduplicator().markReceived(time);
+        }
+        if (Double.isNaN(cursor) || time > cursor) {
+            cursor = time;
+        }
+    }
+
+
+    /**
+     * Create the source of the record blocks of this output. When {@link NoiseMonitoringConfig#recycleDataBlocks}
+     * is set, the records given back with {@link #releaseRecord(DataBlock)} are reused.
+     * @param recordDescription Record description
+     * @return Pool of record blocks
+     */
+    protected DataBlockPool createRecordPool(DataComponent recordDescription)
+    {
+        boolean recycle = getParentModule().getConfiguration().recycleDataBlocks;
+        DataBlockPool pool = new DataBlockPool(recordDescription, recycle ? RECYCLED_RECORDS : 0);
+        blockPool = recycle ? pool : null;
+        return pool;
+    }
+
+
+    /**
+     * Give back a published record once it has been copied or stored, so its block can be reused for a next record
+     * when {@link NoiseMonitoringConfig#recycleDataBlocks} is set. The record must not be read after this call.
+     * @param dataBlock Record received from this output
+     */
+    public void releaseRecord(DataBlock dataBlock)
+    {
+        if (blockPool == null) {
+            return;
+        }
+        synchronized (releaseLock) {
+            if (dataBlock == latestRecord) {
+                // still returned by getLatestRecord
+                latestReleased = true;
+                return;
+            }
+        }
+        blockPool.release(dataBlock);
+    }
+
+
+    private RowDeduplicator getDeduplicator()
+    {
+        if (deduplicator == null) {
+            deduplicator = new RowDeduplicator(getRowResolution());
+        }
+        return deduplicator;
+    }
+
+
+    /**
+     * Move the fetch cursor to the last row restored from the spool, so it is not downloaded again. The rows up to
+     * this one, published or replayed from the spool, are dropped if the station sends them again.
+     * @param time Row timestamp, NaN if the spool is empty
+     */
+    protected void restoreCursor(double time)
+    {
+        if (Double.isNaN(time)) {
+            return;
+        }
+        if (getParentModule().getConfiguration().deduplicateRows) {
+            getDeduplicator().markReceivedUpTo(time);
+        }
+        if (Double.isNaN(cursor) || time > cursor) {
+            cursor = time;
+        }
+    }
+
+
+    /**
+     * Open the local files of this output, called before the output starts: the spool of the rows received but not
+     * yet published, or the store of the sample payloads. Outputs publishing each row as it is received have nothing
+     * to keep.
+     * @throws IOException If the files can not be opened
+     */
+    protected void openStorage() throws IOException
+    {
+    }
+
+
+    /**
+     * Flush and close the local files, called after the output stops
+     * @throws IOException If the files can not be written
+     */
+    protected void closeStorage() throws IOException
+    {
+    }
+
+
+    /**
+     * @return Name of the local files of this output, unique in the hub
+     */
+    protected String getStorageName()
+    {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        return config.serialNumber.replaceAll("[^A-Za-z0-9]", "_") + "_" + getName();
+    }
+
+
+    /**
+     * @return Spool file of this output in the configured spool directory
+     */
+    protected File getSpoolFile()
+    {
+        return new File(getParentModule().getConfiguration().spoolDirectory, getStorageName() + ".spool");
+    }
+
+
+    /**
+     * @return Number of response body bytes received from the network by this output
+     */
+    public long getBytesOnWire()
+    {
+        return metrics.getWireBytes();
+    }
+
+
+    /**
+     * @return Number of response body bytes parsed by this output, after decompression
+     */
+    public long getContentBytes()
+    {
+        return metrics.getContentBytes();
+    }
+
+
+    /**
+     * @return Ingest counters of this output
+     */
+    public IngestMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
+    /**
+     * @return Number of rows received but not yet published, waiting for the rest of their record
+     */
+    public int getPendingRowCount()
+    {
+        return 0;
+    }
+
+
+    /**
+     * @return Timestamp of the last row received from the station, NaN if nothing has been received yet
+     */
+    public double getCursor()
+    {
+        return cursor;
+    }
+
+
+    protected void publish(DataBlock dataBlock)
+    {
+        // update latest record and send event
+        DataBlock releasedRecord = null;
+        synchronized (releaseLock) {
+            if (latestReleased) {
+                releasedRecord = latestRecord;
+                latestReleased = false;
+            }
+            latestRecord = dataBlock;
+        }
+        if (releasedRecord != null) {
+            blockPool.release(releasedRecord);
+        }
+        latestRecordTime = (long)dataBlock.getDoubleValue(0);
+        long start = System.nanoTime();
+        eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(), this, dataBlock));
+        metrics.recordPublished(System.nanoTime() - start);
+    }
+
+
+    protected void start()
+    {
+        synchronized (pollLock) {
+            if (polling || getUrl().isEmpty())
+                return;
+            polling = true;
+            resetPollDelay();
+
+            if (getParentModule().getConfiguration().streaming && isStreamingSupported()) {
+                streamingClient = new StreamingClient(this);
+                streamingClient.start();
+                return;
+            }
+
+            // register main measurement task on the hub polling scheduler
+            Runnable task = new Runnable() {
+                public void run()
+                {
+                    sendMeasurement();
+                }
+            };
+
+            if (getParentModule().getConfiguration().adaptivePolling) {
+                // each poll plans the next one when its request ends
+                pollTask = getParentModule().getScheduler().schedule(task, 0, TimeUnit.MILLISECONDS);
+            } else {
+                pollTask = getParentModule().getScheduler().scheduleAtFixedRate(task, 0, pollDelay,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        synchronized (pollLock) {
+            polling = false;
+            if (streamingClient != null) {
+                streamingClient.stop();
+                stoppedStreamingClient = streamingClient;
+                streamingClient = null;
+            }
+            if (pollTask != null)
+            {
+                pollTask.cancel(false);
+                pollTask = null;
+            }
+        }
+    }
+}
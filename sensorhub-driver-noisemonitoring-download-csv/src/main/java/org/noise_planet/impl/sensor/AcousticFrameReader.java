@@ -0,0 +1,173 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * <p>
+ * Read the compact binary format of the fast and slow acoustic endpoints. All numbers are big endian.
+ * </p>
+ * <pre>
+ * header : 'N' 'M' 'F' version(uint8) columns(uint8)
+ * frame  : time(int64, epoch milliseconds) value(int16, 0.01 dB) * columns
+ * </pre>
+ * <p>
+ * Frames follow the header until the end of stream. Levels are quantized to 0.01 dB, which is the resolution of
+ * the CSV format, a missing value is written {@link #MISSING_VALUE}. Values are decoded with the same rounding as
+ * the CSV parser so both formats give identical records.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class AcousticFrameReader
+{
+    public static final String CONTENT_TYPE = "application/x-noisemonitoring-frame";
+    public static final int VERSION = 1;
+    static final byte[] MAGIC = new byte[]{'N', 'M', 'F'};
+    static final int HEADER_SIZE = MAGIC.length + 2;
+    public static final short MISSING_VALUE = Short.MIN_VALUE;
+    static final float SCALE = 100;
+
+    private final InputStream inputStream;
+    private final int columns;
+    private final byte[] frame;
+    private final float[] values;
+    private double time;
+
+    /**
+     * Read and check the stream header
+     * @param inputStream Binary stream
+     * @param expectedColumns Number of values per frame expected by the caller
+     * @throws IOException If the header is not valid
+     */
+    public AcousticFrameReader(InputStream inputStream, int expectedColumns) throws IOException
+    {
+        this.inputStream = inputStream;
+        byte[] header = new byte[HEADER_SIZE];
+        if (!readFully(header)) {
+            throw new EOFException("Missing acoustic frame header");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                throw new IOException("Not an acoustic frame stream");
+            }
+        }
+        int version = header[MAGIC.length] & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported acoustic frame version " + version);
+        }
+        columns = header[MAGIC.length + 1] & 0xFF;
+        if (columns != expectedColumns) {
+            throw new IOException("Expected " + expectedColumns + " values per frame, got " + columns);
+        }
+        frame = new byte[8 + 2 * columns];
+        values = new float[columns];
+    }
+
+
+    /**
+     * @return Size in bytes of one frame
+     */
+    public int getFrameSize()
+    {
+        return frame.length;
+    }
+
+
+    /**
+     * Read the next frame
+     * @return False at the end of stream
+     * @throws IOException On read error or truncated frame
+     */
+    public boolean nextFrame() throws IOException
+    {
+        if (!readFully(frame)) {
+            return false;
+        }
+        long timeMillis = 0;
+        for (int i = 0; i < 8; i++) {
+            timeMillis = (timeMillis << 8) | (frame[i] & 0xFF);
+        }
+        // exact operands, same rounding as parsing the CSV time stamp with millisecond resolution
+        time = timeMillis / 1000.0;
+        for (int column = 0; column < columns; column++) {
+            int offset = 8 + 2 * column;
+            short quantized = (short) (((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF));
+            values[column] = quantized == MISSING_VALUE ? Float.NaN : quantized / SCALE;
+        }
+        return true;
+    }
+
+
+    /**
+     * @return False if the end of stream is reached before the first byte
+     */
+    private boolean readFully(byte[] buffer) throws IOException
+    {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = inputStream.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated acoustic frame");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+
+    /**
+     * @return Time stamp of the current frame in seconds
+     */
+    public double getTime()
+    {
+        return time;
+    }
+
+
+    /**
+     * @param column Column index
+     * @return Value of the current frame
+     */
+    public float getValue(int column)
+    {
+        return values[column];
+    }
+}
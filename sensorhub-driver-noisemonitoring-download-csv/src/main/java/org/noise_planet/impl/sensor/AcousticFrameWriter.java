@@ -0,0 +1,105 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * <p>
+ * Reference encoder of the binary acoustic frame format described in {@link AcousticFrameReader}.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class AcousticFrameWriter
+{
+    private final OutputStream outputStream;
+    private final int columns;
+    private final byte[] frame;
+
+    /**
+     * Write the stream header
+     * @param outputStream Destination
+     * @param columns Number of values per frame
+     * @throws IOException On write error
+     */
+    public AcousticFrameWriter(OutputStream outputStream, int columns) throws IOException
+    {
+        if (columns < 1 || columns > 255) {
+            throw new IllegalArgumentException("Invalid number of columns " + columns);
+        }
+        this.outputStream = outputStream;
+        this.columns = columns;
+        this.frame = new byte[8 + 2 * columns];
+        byte[] header = new byte[AcousticFrameReader.HEADER_SIZE];
+        System.arraycopy(AcousticFrameReader.MAGIC, 0, header, 0, AcousticFrameReader.MAGIC.length);
+        header[AcousticFrameReader.MAGIC.length] = (byte) AcousticFrameReader.VERSION;
+        header[AcousticFrameReader.MAGIC.length + 1] = (byte) columns;
+        outputStream.write(header);
+    }
+
+
+    /**
+     * Write one frame
+     * @param time Time stamp in seconds, rounded to the millisecond
+     * @param values Levels in dB, rounded to 0.01 dB
+     * @throws IOException On write error
+     */
+    public void writeFrame(double time, float[] values) throws IOException
+    {
+        long timeMillis = Math.round(time * 1000);
+        for (int i = 7; i >= 0; i--) {
+            frame[i] = (byte) timeMillis;
+            timeMillis >>= 8;
+        }
+        for (int column = 0; column < columns; column++) {
+            short quantized = quantize(values[column]);
+            frame[8 + 2 * column] = (byte) (quantized >> 8);
+            frame[9 + 2 * column] = (byte) quantized;
+        }
+        outputStream.write(frame);
+    }
+
+
+    static short quantize(float value)
+    {
+        if (Float.isNaN(value)) {
+            return AcousticFrameReader.MISSING_VALUE;
+        }
+        long quantized = Math.round((double) value * AcousticFrameReader.SCALE);
+        // MISSING_VALUE is reserved
+        return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, quantized));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+
+
+/**
+ * <p>
+ * Assemble multi-row acoustic records. The values are copied once, from the row buffer straight into the record
+ * DataBlock, using column offsets computed once from the record description. The single float array of the blocks
+ * created by {@link DataBlockPool} is written directly. No hashing nor boxing is done per row.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class AcousticRecordBuilder
+{
+    private final int valuesPerRecord;
+    // Index of the first value of each column in the record DataBlock
+    private final int[] columnOffsets;
+    private final int timeOffset;
+
+    /**
+     * @param recordDescription Record with a time stamp field followed by arrays of valuesPerRecord floats
+     * @param timeField Name of the time stamp field
+     * @param columnFields Name of the array fields, in the column order of the rows
+     * @param valuesPerRecord Number of rows per record
+     */
+    public AcousticRecordBuilder(DataComponent recordDescription, String timeField, String[] columnFields,
+                                 int valuesPerRecord)
+    {
+        this.valuesPerRecord = valuesPerRecord;
+        this.columnOffsets = new int[columnFields.length];
+        this.timeOffset = fieldOffset(recordDescription, timeField);
+        for (int column = 0; column < columnFields.length; column++) {
+            columnOffsets[column] = fieldOffset(recordDescription, columnFields[column]);
+        }
+    }
+
+
+    /**
+     * @return Index of the first atom of the field in the record DataBlock
+     */
+    private static int fieldOffset(DataComponent recordDescription, String fieldName)
+    {
+        int offset = 0;
+        for (int i = 0; i < recordDescription.getComponentCount(); i++) {
+            DataComponent field = recordDescription.getComponent(i);
+            if (fieldName.equals(field.getName())) {
+                return offset;
+            }
+            offset += field.createDataBlock().getAtomCount();
+        }
+        throw new IllegalArgumentException("Field " + fieldName + " not found in " + recordDescription.getName());
+    }
+
+
+    /**
+     * Write the oldest valuesPerRecord rows of the buffer into the DataBlock
+     * @param rowBuffer Parsed rows, with the same column order, at least valuesPerRecord of them
+     * @param dataBlock Block created from the record description or by a {@link DataBlockPool}
+     * @return The filled data block
+     */
+    public DataBlock build(AcousticRowBuffer rowBuffer, DataBlock dataBlock)
+    {
+        // Time UTC of the first row
+        dataBlock.setDoubleValue(timeOffset, rowBuffer.getTime(0));
+        float[] values = timeOffset == 0 ? DataBlockPool.getValues(dataBlock) : null;
+        for (int column = 0; column < columnOffsets.length; column++) {
+            int offset = columnOffsets[column];
+            if (values != null) {
+                // the float array starts after the time stamp
+                offset--;
+                for (int row = 0; row < valuesPerRecord; row++) {
+                    values[offset + row] = rowBuffer.getValue(row, column);
+                }
+            } else {
+                for (int row = 0; row < valuesPerRecord; row++) {
+                    dataBlock.setFloatValue(offset + row, rowBuffer.getValue(row, column));
+                }
+            }
+        }
+        return dataBlock;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+
+/**
+ * <p>
+ * Ring buffer of parsed acoustic rows (timestamp and a fixed number of float columns) stored in primitive arrays.
+ * Rows are appended at the tail and consumed from the head, so draining n rows costs O(n) whatever the
+ * number of rows waiting in the buffer.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class AcousticRowBuffer
+{
+    private final int columns;
+    private double[] times;
+    // Row major values, columns values per row
+    private float[] values;
+    // Index of the oldest row
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * @param columns Number of float values per row
+     * @param initialCapacity Number of rows allocated, the buffer grows if necessary
+     */
+    public AcousticRowBuffer(int columns, int initialCapacity)
+    {
+        this.columns = columns;
+        int capacity = Math.max(1, initialCapacity);
+        times = new double[capacity];
+        values = new float[capacity * columns];
+    }
+
+
+    /**
+     * Append a row, the values have to be set using {@link #setValue(int, int, float)}
+     * @param time Row timestamp
+     * @return Slot of the appended row
+     */
+    public int appendRow(double time)
+    {
+        if (size == times.length) {
+            grow();
+        }
+        int slot = (head + size) % times.length;
+        times[slot] = time;
+        size++;
+        return slot;
+    }
+
+
+    /**
+     * Set a value of a row appended using {@link #appendRow(double)}
+     * @param slot Row slot
+     * @param column Column index
+     * @param value Value
+     */
+    public void setValue(int slot, int column, float value)
+    {
+        values[slot * columns + column] = value;
+    }
+
+
+    /**
+     * Remove the last appended row, used when a row could not be fully parsed
+     */
+    public void removeLast()
+    {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+
+    private void grow()
+    {
+        int capacity = times.length;
+        double[] newTimes = new double[capacity * 2];
+        float[] newValues = new float[capacity * 2 * columns];
+        // unwrap rows, the oldest row goes to index 0
+        int firstPart = capacity - head;
+        System.arraycopy(times, head, newTimes, 0, firstPart);
+        System.arraycopy(times, 0, newTimes, firstPart, head);
+        System.arraycopy(values, head * columns, newValues, 0, firstPart * columns);
+        System.arraycopy(values, 0, newValues, firstPart * columns, head * columns);
+        times = newTimes;
+        values = newValues;
+        head = 0;
+    }
+
+
+    /**
+     * @return Number of rows in the buffer
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return Number of float values per row
+     */
+    public int getColumnCount()
+    {
+        return columns;
+    }
+
+
+    /**
+     * @param row Row index, 0 is the oldest row
+     * @return Row timestamp
+     */
+    public double getTime(int row)
+    {
+        return times[(head + row) % times.length];
+    }
+
+
+    /**
+     * @param row Row index, 0 is the oldest row
+     * @param column Column index
+     * @return Value
+     */
+    public float getValue(int row, int column)
+    {
+        return values[((head + row) % times.length) * columns + column];
+    }
+
+
+    /**
+     * Remove the oldest rows
+     * @param count Number of rows to remove
+     */
+    public void removeFirst(int count)
+    {
+        count = Math.min(count, size);
+        head = (head + count) % times.length;
+        size -= count;
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+
+    /**
+     * Remove all rows
+     */
+    public void clear()
+    {
+        head = 0;
+        size = 0;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "AcousticRowBuffer{rows=" + size + ", capacity=" + times.length + ", columns=" + columns + "}";
+    }
+}
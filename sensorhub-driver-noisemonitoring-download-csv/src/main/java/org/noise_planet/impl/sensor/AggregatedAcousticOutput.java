@@ -0,0 +1,208 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataType;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+import org.vast.swe.SWEHelper;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Energetic average of the leq, laeq and third octave bands of the fast acoustic rows over consecutive intervals
+ * aligned on the clock, ex. one record per second or per minute instead of one row each 125 ms.
+ * Energies are summed as the rows are parsed, a record is published as soon as a row of the following interval is
+ * received.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class AggregatedAcousticOutput extends AbstractSensorOutput<NoiseMonitoringSensor> implements AcousticRowListener
+{
+    private final int interval;
+    private DataComponent acousticData;
+    private DataEncoding acousticEncoding;
+    private double[] energies;
+    private int[] counts;
+    private int rowCount = 0;
+    // start time in seconds of the current interval, NaN before the first row
+    private double intervalStart = Double.NaN;
+
+    private final Consumer<DataBlock> recordPublisher = new Consumer<DataBlock>() {
+        @Override
+        public void accept(DataBlock dataBlock)
+        {
+            latestRecord = dataBlock;
+            latestRecordTime = System.currentTimeMillis();
+            eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, AggregatedAcousticOutput.this, dataBlock));
+        }
+    };
+
+    /**
+     * @param parentSensor Station
+     * @param interval Duration of the average in seconds
+     */
+    AggregatedAcousticOutput(NoiseMonitoringSensor parentSensor, int interval)
+    {
+        super(parentSensor);
+        this.interval = interval;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return getParentModule().getOutputName("acoustic_fast_" + interval + "s");
+    }
+
+
+    protected void init()
+    {
+        // leq, laeq and leq by freq, as in the fast rows
+        energies = new double[FastAcousticOutput.freqs.length + 2];
+        counts = new int[energies.length];
+
+        SWEHelper fac = new SWEHelper();
+
+        // build SWE Common record structure
+        acousticData = fac.newDataRecord();
+        acousticData.setName(getName());
+        acousticData.setDefinition("http://sensorml.com/ont/swe/property/Acoustic");
+        acousticData.setDescription("Acoustic indicators energetic average over " + interval + " s");
+
+        acousticData.addComponent("time", fac.newTimeStampIsoUTC());
+        acousticData.addComponent("samples", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Samples", "Number of fast rows in the interval", "row", DataType.INT));
+        acousticData.addComponent("leq", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Leq", null, "dB", DataType.FLOAT));
+        acousticData.addComponent("laeq", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "LAeq", null, "dB(A)", DataType.FLOAT));
+        for(double freq : FastAcousticOutput.freqs) {
+            String name = "leq_" + Double.valueOf(freq).intValue();
+            acousticData.addComponent(name, fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), name, null, "dB", DataType.FLOAT));
+        }
+
+        // also generate encoding definition
+        acousticEncoding = fac.newTextEncoding(",", "\n");
+    }
+
+
+    @Override
+    public void rowReceived(AcousticRowBuffer rows, int row)
+    {
+        addRow(rows, row, recordPublisher);
+    }
+
+
+    /**
+     * Add the energy of a row to the current interval, the interval closed by this row is given to the consumer first.
+     * Rows older than the current interval are ignored.
+     * @param rows Fast rows
+     * @param row Index of the row
+     * @param consumer Receives the record of the closed interval
+     */
+    public synchronized void addRow(AcousticRowBuffer rows, int row, Consumer<DataBlock> consumer)
+    {
+        double time = rows.getTime(row);
+        double rowInterval = Math.floor(time / interval) * interval;
+        if (Double.isNaN(intervalStart)) {
+            intervalStart = rowInterval;
+        } else if (rowInterval > intervalStart) {
+            if (rowCount > 0) {
+                consumer.accept(buildRecord());
+            }
+            Arrays.fill(energies, 0);
+            Arrays.fill(counts, 0);
+            rowCount = 0;
+            intervalStart = rowInterval;
+        } else if (rowInterval < intervalStart) {
+            return;
+        }
+        final double[] rowEnergies = energies;
+        final int[] rowCounts = counts;
+        for (int column = 0; column < rowEnergies.length; column++) {
+            float level = rows.getValue(row, column);
+            // missing values are NaN, they are not part of the average
+            if (level == level) {
+                rowEnergies[column] += AcousticMath.toPower(level);
+                rowCounts[column]++;
+            }
+        }
+        rowCount++;
+    }
+
+
+    private DataBlock buildRecord()
+    {
+        DataBlock dataBlock = acousticData.createDataBlock();
+        dataBlock.setDoubleValue(0, intervalStart);
+        dataBlock.setIntValue(1, rowCount);
+        for (int column = 0; column < energies.length; column++) {
+            dataBlock.setFloatValue(column + 2, counts[column] > 0 ?
+                    (float) AcousticMath.toLevel(energies[column] / counts[column]) : Float.NaN);
+        }
+        return dataBlock;
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        // records are published by the parsing thread of the fast output
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+        return interval;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return acousticData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return acousticEncoding;
+    }
+}
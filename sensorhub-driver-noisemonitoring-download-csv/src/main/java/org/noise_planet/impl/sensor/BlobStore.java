@@ -0,0 +1,568 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * <p>
+ * Local content-addressed store of the sample payloads. Each payload is identified by its SHA-256 hash and appended
+ * to the current segment file, a new segment being started when the current one is full. A payload already stored
+ * is not written again. Payloads are read through a read-only memory mapping of their segment region.
+ * </p>
+ * <p>
+ * The index is kept on disk, split in {@link #INDEX_BUCKETS} bucket files by the first byte of the hash. Each bucket
+ * is an open addressing hash table of fixed size entries (hash, segment, offset, length), at most half full, so a
+ * lookup reads one or two entries whatever the number of payloads stored. A full bucket is rebuilt with twice the
+ * slots in a temporary file which then replaces it. Nothing is loaded on open and only the most recent payloads are
+ * cached in memory.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class BlobStore implements Closeable
+{
+    static final int INDEX_BUCKETS = 256;
+    // SHA-256, segment number, offset and length
+    static final int HASH_SIZE = 32;
+    static final int ENTRY_SIZE = HASH_SIZE + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    // NMBI, then the number of slots and of entries of the bucket
+    static final int INDEX_MAGIC = 0x4E4D4249;
+    static final int INDEX_HEADER_SIZE = 16;
+    private static final int INITIAL_SLOTS = 64;
+    // Number of recent payloads kept in memory, re-delivered lines are usually recent
+    private static final int CACHED_BLOBS = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final long segmentSize;
+    private final Map<String, Blob> recentBlobs = new LinkedHashMap<String, Blob>(CACHED_BLOBS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Blob> eldest)
+        {
+            return size() > CACHED_BLOBS;
+        }
+    };
+    private final MessageDigest digest;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    private final ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+    private FileChannel segment;
+    private int segmentNumber = 0;
+    private long segmentLength = 0;
+
+
+    private BlobStore(File directory, long segmentSize) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+
+    /**
+     * Open or create a blob store
+     * @param directory Directory of the index and segment files, created if necessary
+     * @param segmentSize Size in bytes above which a new segment file is started
+     * @return The blob store
+     * @throws IOException If the files can not be opened
+     */
+    public static BlobStore open(File directory, long segmentSize) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the blob directory " + directory);
+        }
+        BlobStore store = new BlobStore(directory, segmentSize);
+        // continue the last segment
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("segment-") && name.endsWith(".blob")) {
+                    try {
+                        store.segmentNumber = Math.max(store.segmentNumber,
+                                Integer.parseInt(name.substring("segment-".length(), name.length() - ".blob".length())));
+                    } catch (NumberFormatException ex) {
+                        // not a segment of this store
+                    }
+                }
+            }
+        }
+        store.openSegment();
+        return store;
+    }
+
+
+    /**
+     * @param segment Segment number
+     * @return Name of the segment file
+     */
+    public static String getSegmentName(int segment)
+    {
+        return String.format(Locale.ROOT, "segment-%06d.blob", segment);
+    }
+
+
+    /**
+     * @param bucket Bucket number, the first byte of the hashes
+     * @return Name of the index file of the bucket
+     */
+    static String getBucketName(int bucket)
+    {
+        return String.format(Locale.ROOT, "index-%02x.idx", bucket);
+    }
+
+
+    private void openSegment() throws IOException
+    {
+        segment = FileChannel.open(new File(directory, getSegmentName(segmentNumber)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentLength = segment.size();
+    }
+
+
+    private static String toHex(byte[] hashBytes)
+    {
+        char[] hashChars = new char[hashBytes.length * 2];
+        for (int i = 0; i < hashBytes.length; i++) {
+            hashChars[i * 2] = HEX[(hashBytes[i] >> 4) & 0xF];
+            hashChars[i * 2 + 1] = HEX[hashBytes[i] & 0xF];
+        }
+        return new String(hashChars);
+    }
+
+
+    /**
+     * @return Hash bytes, null if the text is not a SHA-256 in hexadecimal
+     */
+    private static byte[] fromHex(String hash)
+    {
+        if (hash.length() != HASH_SIZE * 2) {
+            return null;
+        }
+        byte[] hashBytes = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int high = Character.digit(hash.charAt(i * 2), 16);
+            int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            hashBytes[i] = (byte) ((high << 4) | low);
+        }
+        return hashBytes;
+    }
+
+
+    private File getBucketFile(byte[] hashBytes)
+    {
+        return new File(directory, getBucketName(hashBytes[0] & 0xFF));
+    }
+
+
+    /**
+     * Look for a payload in the index bucket of its hash
+     * @return Location of the payload, null if not stored
+     */
+    private Blob find(String hash, byte[] hashBytes) throws IOException
+    {
+        Blob blob = recentBlobs.get(hash);
+        if (blob != null) {
+            return blob;
+        }
+        File bucketFile = getBucketFile(hashBytes);
+        if (!bucketFile.exists()) {
+            return null;
+        }
+        try (FileChannel bucket = FileChannel.open(bucketFile.toPath(), StandardOpenOption.READ)) {
+            if (!readHeader(bucket) || probe(bucket, header.getInt(4), hashBytes) < 0 || isEmpty(entry)) {
+                return null;
+            }
+            blob = new Blob(hash, entry.getInt(HASH_SIZE) - 1, entry.getLong(HASH_SIZE + Integer.BYTES),
+                    entry.getInt(HASH_SIZE + Integer.BYTES + Long.BYTES));
+            recentBlobs.put(hash, blob);
+            return blob;
+        }
+    }
+
+
+    /**
+     * Read the bucket header: magic, number of slots and number of entries
+     * @return False if the bucket has no header yet
+     * @throws IOException If the file is not an index bucket
+     */
+    private boolean readHeader(FileChannel bucket) throws IOException
+    {
+        header.clear();
+        while (header.hasRemaining() && bucket.read(header, header.position()) >= 0) {
+            // until the header is complete or the end of the file
+        }
+        if (header.position() < INDEX_HEADER_SIZE) {
+            return false;
+        }
+        int slots = header.getInt(4);
+        if (header.getInt(0) != INDEX_MAGIC || slots <= 0 || Integer.bitCount(slots) != 1) {
+            throw new IOException("Invalid blob index bucket in " + directory);
+        }
+        return true;
+    }
+
+
+    private void writeHeader(FileChannel bucket, int slots, int entries) throws IOException
+    {
+        header.clear();
+        header.putInt(INDEX_MAGIC).putInt(slots).putInt(entries).putInt(0);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += bucket.write(header, position);
+        }
+    }
+
+
+    /**
+     * First slot of a hash, from the bytes following the bucket byte
+     */
+    private static int firstSlot(byte[] hashBytes, int slots)
+    {
+        int key = ((hashBytes[1] & 0xFF) << 24) | ((hashBytes[2] & 0xFF) << 16) | ((hashBytes[3] & 0xFF) << 8) |
+                (hashBytes[4] & 0xFF);
+        return key & (slots - 1);
+    }
+
+
+    /**
+     * Walk the slots from the first slot of the hash, up to the entry of the hash or the first empty slot. The slot
+     * content is left in {@link #entry}.
+     * @return Slot index, -1 if the bucket is full
+     */
+    private int probe(FileChannel bucket, int slots, byte[] hashBytes) throws IOException
+    {
+        int slot = firstSlot(hashBytes, slots);
+        for (int probes = 0; probes < slots; probes++) {
+            entry.clear();
+            long position = INDEX_HEADER_SIZE + (long) slot * ENTRY_SIZE;
+            int read;
+            while (entry.hasRemaining() && (read = bucket.read(entry, position)) >= 0) {
+                position += read;
+            }
+            // slots after the end of the file have never been written
+            while (entry.hasRemaining()) {
+                entry.put((byte) 0);
+            }
+            if (isEmpty(entry) || matches(entry, 0, hashBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return True if the entry at the start of the buffer is a free slot, the segment number is stored plus one
+     */
+    private static boolean isEmpty(ByteBuffer buffer)
+    {
+        return buffer.getInt(HASH_SIZE) == 0;
+    }
+
+
+    private static boolean matches(ByteBuffer buffer, int position, byte[] hashBytes)
+    {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (buffer.get(position + i) != hashBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Write the entry of a new payload in the index bucket of its hash, the bucket is grown if half full
+     */
+    private void insert(byte[] hashBytes, Blob blob) throws IOException
+    {
+        File bucketFile = getBucketFile(hashBytes);
+        while (true) {
+            try (FileChannel bucket = FileChannel.open(bucketFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (!readHeader(bucket)) {
+                    writeHeader(bucket, INITIAL_SLOTS, 0);
+                }
+                int slots = header.getInt(4);
+                int entries = header.getInt(8);
+                if ((entries + 1) * 2 <= slots) {
+                    int slot = probe(bucket, slots, hashBytes);
+                    if (slot < 0) {
+                        throw new IOException("Blob index bucket " + bucketFile + " is full");
+                    }
+                    entry.clear();
+                    entry.put(hashBytes).putInt(blob.segment + 1).putLong(blob.offset).putInt(blob.length);
+                    entry.flip();
+                    long position = INDEX_HEADER_SIZE + (long) slot * ENTRY_SIZE;
+                    while (entry.hasRemaining()) {
+                        position += bucket.write(entry, position);
+                    }
+                    writeHeader(bucket, slots, entries + 1);
+                    return;
+                }
+            }
+            grow(bucketFile);
+        }
+    }
+
+
+    /**
+     * Rebuild a bucket with twice the slots. The new table is written in a temporary file which then replaces the
+     * bucket, a crash leaves either the old or the new bucket.
+     */
+    private void grow(File bucketFile) throws IOException
+    {
+        ByteBuffer table;
+        int slots;
+        try (FileChannel bucket = FileChannel.open(bucketFile.toPath(), StandardOpenOption.READ)) {
+            readHeader(bucket);
+            slots = header.getInt(4);
+            table = ByteBuffer.allocate(slots * ENTRY_SIZE);
+            while (table.hasRemaining() && bucket.read(table, INDEX_HEADER_SIZE + table.position()) >= 0) {
+                // read every slot, the slots after the end of the file stay empty
+            }
+        }
+        int newSlots = slots * 2;
+        ByteBuffer grown = ByteBuffer.allocate(INDEX_HEADER_SIZE + newSlots * ENTRY_SIZE);
+        byte[] hashBytes = new byte[HASH_SIZE];
+        int entries = 0;
+        for (int position = 0; position < slots * ENTRY_SIZE; position += ENTRY_SIZE) {
+            if (table.getInt(position + HASH_SIZE) == 0) {
+                continue;
+            }
+            for (int i = 0; i < HASH_SIZE; i++) {
+                hashBytes[i] = table.get(position + i);
+            }
+            int slot = firstSlot(hashBytes, newSlots);
+            while (grown.getInt(INDEX_HEADER_SIZE + slot * ENTRY_SIZE + HASH_SIZE) != 0) {
+                slot = (slot + 1) & (newSlots - 1);
+            }
+            for (int i = 0; i < ENTRY_SIZE; i++) {
+                grown.put(INDEX_HEADER_SIZE + slot * ENTRY_SIZE + i, table.get(position + i));
+            }
+            entries++;
+        }
+        grown.putInt(0, INDEX_MAGIC).putInt(4, newSlots).putInt(8, entries);
+        File grownFile = new File(bucketFile.getPath() + ".tmp");
+        try (FileChannel bucket = FileChannel.open(grownFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (grown.hasRemaining()) {
+                bucket.write(grown);
+            }
+            bucket.force(true);
+        }
+        Files.move(grownFile.toPath(), bucketFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Store a payload, if not already stored
+     * @param data Buffer holding the payload
+     * @param offset Offset of the payload in the buffer
+     * @param length Length of the payload
+     * @return Location of the payload
+     * @throws IOException If the payload can not be written
+     */
+    public synchronized Blob put(byte[] data, int offset, int length) throws IOException
+    {
+        if (segment == null) {
+            throw new IOException("Blob store " + directory + " is closed");
+        }
+        digest.reset();
+        digest.update(data, offset, length);
+        byte[] hashBytes = digest.digest();
+        String hash = toHex(hashBytes);
+        Blob blob = find(hash, hashBytes);
+        if (blob != null) {
+            return blob;
+        }
+        if (segmentLength > 0 && segmentLength + length > segmentSize) {
+            segment.close();
+            segmentNumber++;
+            openSegment();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        blob = new Blob(hash, segmentNumber, segmentLength, length);
+        segmentLength += length;
+        // the entry is written once the payload is in its segment
+        insert(hashBytes, blob);
+        recentBlobs.put(hash, blob);
+        return blob;
+    }
+
+
+    /**
+     * @param hash SHA-256 of the payload, as returned by {@link Blob#getHash()}
+     * @return Location of the payload, null if unknown
+     * @throws IOException If the index can not be read
+     */
+    public synchronized Blob get(String hash) throws IOException
+    {
+        byte[] hashBytes = fromHex(hash);
+        return hashBytes == null ? null : find(hash.toLowerCase(Locale.ROOT), hashBytes);
+    }
+
+
+    /**
+     * Map a payload in memory
+     * @param hash SHA-256 of the payload
+     * @return Read-only buffer of the payload, null if unknown
+     * @throws IOException If the segment can not be read
+     */
+    public ByteBuffer read(String hash) throws IOException
+    {
+        Blob blob = get(hash);
+        if (blob == null) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, blob.getSegmentName()), "r")) {
+            // the mapping stays valid once the file is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, blob.offset, blob.length);
+        }
+    }
+
+
+    /**
+     * @return Number of payloads stored, from the headers of the index buckets
+     * @throws IOException If the index can not be read
+     */
+    public synchronized long size() throws IOException
+    {
+        long entries = 0;
+        for (int bucket = 0; bucket < INDEX_BUCKETS; bucket++) {
+            File bucketFile = new File(directory, getBucketName(bucket));
+            if (bucketFile.exists()) {
+                try (FileChannel channel = FileChannel.open(bucketFile.toPath(), StandardOpenOption.READ)) {
+                    if (readHeader(channel)) {
+                        entries += header.getInt(8);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (segment == null) {
+            return;
+        }
+        segment.force(true);
+        segment.close();
+        segment = null;
+        recentBlobs.clear();
+    }
+
+
+    /**
+     * Location of a payload in the segment files
+     */
+    public static class Blob
+    {
+        private final String hash;
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Blob(String hash, int segment, long offset, int length)
+        {
+            this.hash = hash;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return SHA-256 of the payload in hexadecimal
+         */
+        public String getHash()
+        {
+            return hash;
+        }
+
+        /**
+         * @return Name of the segment file holding the payload
+         */
+        public String getSegmentName()
+        {
+            return BlobStore.getSegmentName(segment);
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * @return Reference of the payload in the store directory: segment file name and offset
+         */
+        public String getReference()
+        {
+            return getSegmentName() + ":" + offset;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * <p>
+ * Input stream counting the bytes read from the wrapped stream, and the time spent waiting for them. On a network
+ * stream the read time is mostly spent blocked on the socket, the caller subtracts it to get its own processing time.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    private long count = 0;
+    private long readTime = 0;
+
+    public CountingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+
+    @Override
+    public int read() throws IOException
+    {
+        long start = System.nanoTime();
+        int b = super.read();
+        readTime += System.nanoTime() - start;
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        long start = System.nanoTime();
+        int read = super.read(b, off, len);
+        readTime += System.nanoTime() - start;
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long start = System.nanoTime();
+        long skipped = super.skip(n);
+        readTime += System.nanoTime() - start;
+        count += skipped;
+        return skipped;
+    }
+
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * @return Number of bytes read or skipped
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return Time in ns spent in the read and skip calls of the wrapped stream
+     */
+    public long getReadTime()
+    {
+        return readTime;
+    }
+}
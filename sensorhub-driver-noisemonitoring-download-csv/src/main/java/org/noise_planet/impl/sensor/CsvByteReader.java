@@ -0,0 +1,379 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Read CSV rows from a byte stream and decode the numeric fields into primitives, without allocating
+ * a String per row or per field. Stations write numbers in plain decimal notation (ex: -12.27), the few values
+ * using another notation (exponent, NaN) are decoded by the JDK parser.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class CsvByteReader
+{
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final byte SEPARATOR = ',';
+    private static final byte END_OF_LINE = '\n';
+    // Largest mantissa exactly represented by a double and a float
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+    private static final long MAX_EXACT_FLOAT = 1L << 24;
+    private static final double[] DOUBLE_POW10 = new double[23];
+    private static final float[] FLOAT_POW10 = new float[11];
+
+    static {
+        DOUBLE_POW10[0] = 1;
+        for (int i = 1; i < DOUBLE_POW10.length; i++) {
+            DOUBLE_POW10[i] = DOUBLE_POW10[i - 1] * 10;
+        }
+        FLOAT_POW10[0] = 1;
+        for (int i = 1; i < FLOAT_POW10.length; i++) {
+            FLOAT_POW10[i] = FLOAT_POW10[i - 1] * 10;
+        }
+    }
+
+    // One buffer per fetch thread, shared by the responses of all the stations
+    private static final ThreadLocal<byte[]> THREAD_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[DEFAULT_BUFFER_SIZE];
+        }
+    };
+
+    private final InputStream inputStream;
+    private byte[] buffer;
+    // Valid bytes are in [0, limit)
+    private int limit = 0;
+    // Current line is in [lineStart, lineEnd)
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int nextLineStart = 0;
+    // Next field start
+    private int position = 0;
+    private boolean endOfStream = false;
+    private long bytesRead = 0;
+
+    // Result of the last decoded number
+    private long mantissa;
+    private int scale;
+    private boolean negative;
+
+    public CsvByteReader(InputStream inputStream)
+    {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvByteReader(InputStream inputStream, int bufferSize)
+    {
+        this(inputStream, new byte[bufferSize]);
+    }
+
+    private CsvByteReader(InputStream inputStream, byte[] buffer)
+    {
+        this.inputStream = inputStream;
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Create a reader using the buffer of the current thread. The reader must not be used once another reader has
+     * been created by this thread, this is the case of the readers created while parsing a response.
+     * @param inputStream CSV rows
+     * @return Reader using the thread buffer
+     */
+    public static CsvByteReader withThreadBuffer(InputStream inputStream)
+    {
+        return new CsvByteReader(inputStream, THREAD_BUFFER.get());
+    }
+
+
+    /**
+     * Move to the next non empty line
+     * @return False if the end of stream has been reached
+     * @throws IOException On read error
+     */
+    public boolean nextLine() throws IOException
+    {
+        while (true) {
+            lineStart = nextLineStart;
+            int i = lineStart;
+            while (true) {
+                while (i < limit && buffer[i] != END_OF_LINE) {
+                    i++;
+                }
+                if (i < limit || endOfStream) {
+                    break;
+                }
+                i = fill(i);
+            }
+            if (i == limit && i == lineStart && endOfStream) {
+                lineEnd = limit;
+                position = limit;
+                return false;
+            }
+            nextLineStart = i < limit ? i + 1 : i;
+            int end = i;
+            // windows line ending
+            if (end > lineStart && buffer[end - 1] == '\r') {
+                end--;
+            }
+            if (end > lineStart) {
+                lineEnd = end;
+                position = lineStart;
+                return true;
+            }
+            // skip empty line
+        }
+    }
+
+
+    /**
+     * Move the current partial line to the start of the buffer and read more bytes
+     * @param searchFrom Index where the end of line search stopped
+     * @return New index where to continue the search
+     * @throws IOException On read error
+     */
+    private int fill(int searchFrom) throws IOException
+    {
+        int remaining = limit - lineStart;
+        if (lineStart > 0) {
+            System.arraycopy(buffer, lineStart, buffer, 0, remaining);
+            searchFrom -= lineStart;
+            lineStart = 0;
+            limit = remaining;
+        } else if (limit == buffer.length) {
+            // line longer than the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+            bytesRead += read;
+        }
+        return searchFrom;
+    }
+
+
+    /**
+     * @return True if the current line has at least one more field
+     */
+    public boolean hasNextField()
+    {
+        return position < lineEnd;
+    }
+
+
+    private int nextFieldEnd()
+    {
+        if (position >= lineEnd) {
+            throw new NumberFormatException("Missing field in line \"" + getLine() + "\"");
+        }
+        int end = position;
+        while (end < lineEnd && buffer[end] != SEPARATOR) {
+            end++;
+        }
+        return end;
+    }
+
+
+    private void consumeField(int end)
+    {
+        position = end < lineEnd ? end + 1 : lineEnd;
+    }
+
+
+    /**
+     * Decode [start, end) into mantissa, scale and sign.
+     * @return False if the field is not in plain decimal notation
+     */
+    private boolean decodeDecimal(int start, int end, long maxMantissa)
+    {
+        while (start < end && buffer[start] == ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] == ' ') {
+            end--;
+        }
+        negative = false;
+        if (start < end && (buffer[start] == '-' || buffer[start] == '+')) {
+            negative = buffer[start] == '-';
+            start++;
+        }
+        if (start == end) {
+            return false;
+        }
+        long value = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            byte c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+                if (value >= maxMantissa) {
+                    return false;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        mantissa = value;
+        scale = Math.max(0, decimals);
+        return true;
+    }
+
+
+    /**
+     * @return Next field of the current line as a double
+     */
+    public double nextDouble()
+    {
+        int start = position;
+        int end = nextFieldEnd();
+        consumeField(end);
+        if (decodeDecimal(start, end, MAX_EXACT_DOUBLE) && scale < DOUBLE_POW10.length) {
+            // both operands are exact, so the division is correctly rounded like Double.parseDouble
+            double value = scale == 0 ? mantissa : mantissa / DOUBLE_POW10[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(asString(start, end));
+    }
+
+
+    /**
+     * @return Next field of the current line as a float
+     */
+    public float nextFloat()
+    {
+        int start = position;
+        int end = nextFieldEnd();
+        consumeField(end);
+        if (decodeDecimal(start, end, MAX_EXACT_FLOAT) && scale < FLOAT_POW10.length) {
+            // both operands are exact, so the division is correctly rounded like Float.parseFloat
+            float value = scale == 0 ? mantissa : mantissa / FLOAT_POW10[scale];
+            return negative ? -value : value;
+        }
+        return Float.parseFloat(asString(start, end));
+    }
+
+
+    /**
+     * @return Next field of the current line as a long
+     */
+    public long nextLong()
+    {
+        int start = position;
+        int end = nextFieldEnd();
+        consumeField(end);
+        if (decodeDecimal(start, end, Long.MAX_VALUE / 10) && scale == 0) {
+            return negative ? -mantissa : mantissa;
+        }
+        return Long.parseLong(asString(start, end).trim());
+    }
+
+
+    /**
+     * @return Next field of the current line as an int
+     */
+    public int nextInt()
+    {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of int range " + value);
+        }
+        return (int) value;
+    }
+
+
+    /**
+     * @return Next field of the current line as a String
+     */
+    public String nextString()
+    {
+        int start = position;
+        int end = nextFieldEnd();
+        consumeField(end);
+        return asString(start, end);
+    }
+
+
+    /**
+     * Skip the next field of the current line
+     */
+    public void skipField()
+    {
+        consumeField(nextFieldEnd());
+    }
+
+
+    /**
+     * @return Current line, for error messages
+     */
+    public String getLine()
+    {
+        return asString(lineStart, lineEnd);
+    }
+
+
+    /**
+     * @return Number of bytes read from the underlying stream
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+
+    private String asString(int start, int end)
+    {
+        return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataBlockDouble;
+import org.vast.data.DataBlockFloat;
+import org.vast.data.DataBlockMixed;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * <p>
+ * Source of the acoustic record blocks. A record is a time stamp followed by float arrays, its block holds the time
+ * stamp in a one value double block and all the float values in a single primitive array, instead of one block per
+ * array field. Creating a record then costs the same few allocations whatever its number of fields.
+ * </p>
+ * <p>
+ * With a capacity above zero, the blocks given back with {@link #release(DataBlock)} are handed out again instead of
+ * allocating new ones. This only helps the callers releasing the records they have consumed, the storage and event
+ * consumers of the hub do not release anything.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class DataBlockPool
+{
+    // Number of float values of a record, after the time stamp
+    private final int valueCount;
+    private final int capacity;
+    private final ArrayDeque<DataBlock> blocks;
+    private long allocations = 0;
+
+    /**
+     * @param recordDescription Description of the records, a time stamp field followed by float array fields
+     * @param capacity Maximum number of released blocks kept, 0 to disable recycling
+     */
+    public DataBlockPool(DataComponent recordDescription, int capacity)
+    {
+        this.valueCount = recordDescription.createDataBlock().getAtomCount() - 1;
+        this.capacity = capacity;
+        this.blocks = new ArrayDeque<>(Math.max(1, capacity));
+    }
+
+
+    /**
+     * @return A released block, or a new one if none is available. Its content must be entirely overwritten.
+     */
+    public synchronized DataBlock acquire()
+    {
+        DataBlock dataBlock = blocks.pollLast();
+        if (dataBlock == null) {
+            allocations++;
+            dataBlock = new DataBlockMixed(new DataBlockDouble(1), new DataBlockFloat(valueCount));
+        }
+        return dataBlock;
+    }
+
+
+    /**
+     * @param dataBlock Record block
+     * @return The float values following the time stamp if the block has been created by a pool, null otherwise
+     */
+    public static float[] getValues(DataBlock dataBlock)
+    {
+        if (dataBlock instanceof DataBlockMixed) {
+            AbstractDataBlock[] children = ((DataBlockMixed) dataBlock).getUnderlyingObject();
+            if (children.length == 2 && children[1] instanceof DataBlockFloat) {
+                return ((DataBlockFloat) children[1]).getUnderlyingObject();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Give back a block that is no longer referenced by any consumer
+     * @param dataBlock Block obtained from {@link #acquire()}
+     */
+    public synchronized void release(DataBlock dataBlock)
+    {
+        float[] values = getValues(dataBlock);
+        if (blocks.size() < capacity && values != null && values.length == valueCount) {
+            blocks.addLast(dataBlock);
+        }
+    }
+
+
+    /**
+     * @return Number of blocks kept for reuse
+     */
+    public synchronized int getAvailableCount()
+    {
+        return blocks.size();
+    }
+
+
+    /**
+     * @return Number of blocks allocated by this pool
+     */
+    public synchronized long getAllocationCount()
+    {
+        return allocations;
+    }
+}
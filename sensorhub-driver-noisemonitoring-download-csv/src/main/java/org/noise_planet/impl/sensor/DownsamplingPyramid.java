@@ -0,0 +1,197 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+
+/**
+ * <p>
+ * Cascading downsampling of the leq and laeq values of an acoustic output, ex. into 1 s, 10 s, 1 min, 10 min and
+ * 1 h buckets aligned on the clock. Rows are only added to the finest level; each closed bucket is merged into the
+ * bucket of the next level, so the cost per row does not depend on the number of levels.
+ * Each level duration must be a multiple of the previous one.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class DownsamplingPyramid implements AcousticRowListener
+{
+    // leq and laeq columns of the acoustic rows
+    private static final int[] COLUMNS = new int[] {0, 1};
+
+    private final PyramidLevelOutput[] outputs;
+    // start time in seconds of the current bucket of each level, NaN before the first row
+    private final double[] starts;
+    private final int[] samples;
+    private final int[][] counts;
+    private final double[][] energies;
+    private final float[][] minimums;
+    private final float[][] maximums;
+
+    private final ObjIntConsumer<DataBlock> recordPublisher = new ObjIntConsumer<DataBlock>() {
+        @Override
+        public void accept(DataBlock dataBlock, int level)
+        {
+            outputs[level].publish(dataBlock);
+        }
+    };
+
+    /**
+     * @param outputs Outputs of the levels, from the finest to the coarsest
+     */
+    public DownsamplingPyramid(PyramidLevelOutput[] outputs)
+    {
+        for (int level = 1; level < outputs.length; level++) {
+            if (outputs[level].getDuration() % outputs[level - 1].getDuration() != 0) {
+                throw new IllegalArgumentException("Pyramid level of " + outputs[level].getDuration() +
+                        " s is not a multiple of the previous level of " + outputs[level - 1].getDuration() + " s");
+            }
+        }
+        this.outputs = outputs;
+        starts = new double[outputs.length];
+        Arrays.fill(starts, Double.NaN);
+        samples = new int[outputs.length];
+        counts = new int[outputs.length][COLUMNS.length];
+        energies = new double[outputs.length][COLUMNS.length];
+        minimums = new float[outputs.length][COLUMNS.length];
+        maximums = new float[outputs.length][COLUMNS.length];
+        for (int level = 0; level < outputs.length; level++) {
+            clear(level);
+        }
+    }
+
+
+    @Override
+    public void rowReceived(AcousticRowBuffer rows, int row)
+    {
+        addRow(rows, row, recordPublisher);
+    }
+
+
+    /**
+     * Add a row to the finest level, the buckets closed by this row are given to the consumer first, finest first.
+     * Rows older than the current bucket are ignored.
+     * @param rows Acoustic rows
+     * @param row Index of the row
+     * @param consumer Receives the records of the closed buckets, with their level index
+     */
+    public synchronized void addRow(AcousticRowBuffer rows, int row, ObjIntConsumer<DataBlock> consumer)
+    {
+        if (outputs.length == 0 || !moveTo(0, rows.getTime(row), consumer)) {
+            return;
+        }
+        for (int column = 0; column < COLUMNS.length; column++) {
+            float level = rows.getValue(row, COLUMNS[column]);
+            // missing values are NaN
+            if (level == level) {
+                energies[0][column] += AcousticMath.toPower(level);
+                counts[0][column]++;
+                minimums[0][column] = Math.min(minimums[0][column], level);
+                maximums[0][column] = Math.max(maximums[0][column], level);
+            }
+        }
+        samples[0]++;
+    }
+
+
+    /**
+     * Make the bucket holding the given time the current bucket of a level, closing the previous one
+     * @return False if the time is before the current bucket
+     */
+    private boolean moveTo(int level, double time, ObjIntConsumer<DataBlock> consumer)
+    {
+        int duration = outputs[level].getDuration();
+        double start = Math.floor(time / duration) * duration;
+        if (Double.isNaN(starts[level])) {
+            starts[level] = start;
+        } else if (start > starts[level]) {
+            close(level, consumer);
+            starts[level] = start;
+            if (level + 1 < outputs.length) {
+                // publish the coarser buckets as soon as their last finer bucket is closed
+                moveTo(level + 1, start, consumer);
+            }
+        }
+        return start == starts[level];
+    }
+
+
+    private void close(int level, ObjIntConsumer<DataBlock> consumer)
+    {
+        if (samples[level] > 0) {
+            consumer.accept(buildRecord(level), level);
+            int next = level + 1;
+            if (next < outputs.length && moveTo(next, starts[level], consumer)) {
+                // merge the bucket into the bucket of the coarser level
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    energies[next][column] += energies[level][column];
+                    counts[next][column] += counts[level][column];
+                    minimums[next][column] = Math.min(minimums[next][column], minimums[level][column]);
+                    maximums[next][column] = Math.max(maximums[next][column], maximums[level][column]);
+                }
+                samples[next] += samples[level];
+            }
+        }
+        clear(level);
+    }
+
+
+    private void clear(int level)
+    {
+        samples[level] = 0;
+        Arrays.fill(counts[level], 0);
+        Arrays.fill(energies[level], 0);
+        Arrays.fill(minimums[level], Float.POSITIVE_INFINITY);
+        Arrays.fill(maximums[level], Float.NEGATIVE_INFINITY);
+    }
+
+
+    private DataBlock buildRecord(int level)
+    {
+        DataBlock dataBlock = outputs[level].getRecordDescription().createDataBlock();
+        dataBlock.setDoubleValue(0, starts[level]);
+        dataBlock.setIntValue(1, samples[level]);
+        for (int column = 0; column < COLUMNS.length; column++) {
+            boolean empty = counts[level][column] == 0;
+            dataBlock.setFloatValue(2 + column * 3, empty ? Float.NaN :
+                    (float) AcousticMath.toLevel(energies[level][column] / counts[level][column]));
+            dataBlock.setFloatValue(3 + column * 3, empty ? Float.NaN : minimums[level][column]);
+            dataBlock.setFloatValue(4 + column * 3, empty ? Float.NaN : maximums[level][column]);
+        }
+        return dataBlock;
+    }
+}
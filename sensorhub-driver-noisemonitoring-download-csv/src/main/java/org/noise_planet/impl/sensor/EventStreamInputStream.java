@@ -0,0 +1,167 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Decode a server-sent events stream into rows. The payload of each data field is returned followed by a new line,
+ * the other fields (event, id, retry) and the comments used as heartbeat are skipped.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ * @see <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">Server-sent events</a>
+ */
+public class EventStreamInputStream extends InputStream
+{
+    public static final String CONTENT_TYPE = "text/event-stream";
+    private static final byte[] DATA_FIELD = new byte[] {'d', 'a', 't', 'a', ':'};
+
+    private final InputStream inputStream;
+    private final byte[] wireBuffer = new byte[8192];
+    private int wirePosition = 0;
+    private int wireLimit = 0;
+    // Current decoded row in [rowPosition, rowLimit)
+    private byte[] row = new byte[256];
+    private int rowPosition = 0;
+    private int rowLimit = 0;
+
+    public EventStreamInputStream(InputStream inputStream)
+    {
+        this.inputStream = inputStream;
+    }
+
+
+    @Override
+    public int read() throws IOException
+    {
+        if (rowPosition == rowLimit && !nextRow()) {
+            return -1;
+        }
+        return row[rowPosition++] & 0xFF;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (rowPosition == rowLimit && !nextRow()) {
+            return -1;
+        }
+        int read = Math.min(len, rowLimit - rowPosition);
+        System.arraycopy(row, rowPosition, b, off, read);
+        rowPosition += read;
+        return read;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+
+    /**
+     * Read lines until a data line
+     * @return False at the end of the stream
+     */
+    private boolean nextRow() throws IOException
+    {
+        while (true) {
+            rowPosition = 0;
+            rowLimit = 0;
+            int c;
+            while ((c = readWire()) >= 0 && c != '\n') {
+                if (rowLimit == row.length) {
+                    row = Arrays.copyOf(row, row.length * 2);
+                }
+                row[rowLimit++] = (byte) c;
+            }
+            if (c < 0 && rowLimit == 0) {
+                return false;
+            }
+            if (rowLimit > 0 && row[rowLimit - 1] == '\r') {
+                rowLimit--;
+            }
+            if (isDataLine()) {
+                rowPosition = DATA_FIELD.length;
+                // a single space after the colon is not part of the value
+                if (rowPosition < rowLimit && row[rowPosition] == ' ') {
+                    rowPosition++;
+                }
+                if (rowLimit == row.length) {
+                    row = Arrays.copyOf(row, row.length + 1);
+                }
+                row[rowLimit++] = '\n';
+                return true;
+            }
+        }
+    }
+
+
+    private boolean isDataLine()
+    {
+        if (rowLimit < DATA_FIELD.length) {
+            return false;
+        }
+        for (int i = 0; i < DATA_FIELD.length; i++) {
+            if (row[i] != DATA_FIELD[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private int readWire() throws IOException
+    {
+        if (wirePosition == wireLimit) {
+            // only block until some bytes are available, rows are given as soon as they are received
+            int read = inputStream.read(wireBuffer, 0, wireBuffer.length);
+            if (read < 0) {
+                return -1;
+            }
+            wirePosition = 0;
+            wireLimit = read;
+        }
+        return wireBuffer[wirePosition++] & 0xFF;
+    }
+}
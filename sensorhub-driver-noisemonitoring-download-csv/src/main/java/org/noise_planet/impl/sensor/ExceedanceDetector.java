@@ -0,0 +1,140 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Compare each LAeq value of an acoustic output with a set of thresholds. An exceedance starts when the level
+ * stays above a threshold for the minimum duration, and ends when the level falls below the threshold minus the
+ * hysteresis. The state of each threshold is kept in primitive arrays, checking a row does not allocate anything.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class ExceedanceDetector implements AcousticRowListener
+{
+    private final ExceedanceOutput output;
+    private final String source;
+    private final int levelColumn;
+    private final float[] thresholds;
+    private final float hysteresis;
+    private final double minimumDuration;
+    // state of each threshold: level above the threshold, start event published, first time above, highest level
+    private final boolean[] above;
+    private final boolean[] started;
+    private final double[] startTimes;
+    private final float[] peaks;
+
+    private final Consumer<DataBlock> recordPublisher = new Consumer<DataBlock>() {
+        @Override
+        public void accept(DataBlock dataBlock)
+        {
+            output.publish(dataBlock);
+        }
+    };
+
+    /**
+     * @param output Output of the events
+     * @param source Name of the acoustic output
+     * @param levelColumn Column of the LAeq value in the rows of the acoustic output
+     * @param thresholds Thresholds in dB(A)
+     * @param hysteresis The exceedance ends below threshold - hysteresis, in dB
+     * @param minimumDuration Time in seconds above the threshold before the start event
+     */
+    public ExceedanceDetector(ExceedanceOutput output, String source, int levelColumn, float[] thresholds,
+                              float hysteresis, double minimumDuration)
+    {
+        this.output = output;
+        this.source = source;
+        this.levelColumn = levelColumn;
+        this.thresholds = thresholds;
+        this.hysteresis = hysteresis;
+        this.minimumDuration = minimumDuration;
+        above = new boolean[thresholds.length];
+        started = new boolean[thresholds.length];
+        startTimes = new double[thresholds.length];
+        peaks = new float[thresholds.length];
+    }
+
+
+    @Override
+    public void rowReceived(AcousticRowBuffer rows, int row)
+    {
+        addLevel(rows.getTime(row), rows.getValue(row, levelColumn), recordPublisher);
+    }
+
+
+    /**
+     * @param time Level timestamp in seconds
+     * @param level LAeq in dB(A), NaN values are ignored
+     * @param consumer Receives the start and end events
+     */
+    public synchronized void addLevel(double time, float level, Consumer<DataBlock> consumer)
+    {
+        if (level != level) {
+            return;
+        }
+        for (int i = 0; i < thresholds.length; i++) {
+            if (above[i]) {
+                if (level < thresholds[i] - hysteresis) {
+                    if (started[i]) {
+                        consumer.accept(output.buildEvent(time, source, ExceedanceOutput.EVENT_END, thresholds[i],
+                                startTimes[i], peaks[i]));
+                    }
+                    above[i] = false;
+                    started[i] = false;
+                    continue;
+                }
+                if (level > peaks[i]) {
+                    peaks[i] = level;
+                }
+            } else if (level >= thresholds[i]) {
+                above[i] = true;
+                startTimes[i] = time;
+                peaks[i] = level;
+            } else {
+                continue;
+            }
+            if (!started[i] && time - startTimes[i] >= minimumDuration) {
+                started[i] = true;
+                consumer.accept(output.buildEvent(time, source, ExceedanceOutput.EVENT_START, thresholds[i],
+                        startTimes[i], peaks[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataType;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+import org.vast.swe.SWEHelper;
+
+
+/**
+ * <p>
+ * Start and end events of the LAeq threshold exceedances found by the {@link ExceedanceDetector} of the slow and
+ * fast outputs. Events are published while the response is parsed, without waiting for the end of the record.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class ExceedanceOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+{
+    public static final String EVENT_START = "start";
+    public static final String EVENT_END = "end";
+    private DataComponent eventData;
+    private DataEncoding eventEncoding;
+
+    ExceedanceOutput(NoiseMonitoringSensor parentSensor)
+    {
+        super(parentSensor);
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return getParentModule().getOutputName("acoustic_exceedance");
+    }
+
+
+    protected void init()
+    {
+        SWEHelper fac = new SWEHelper();
+
+        // build SWE Common record structure
+        eventData = fac.newDataRecord(7);
+        eventData.setName(getName());
+        eventData.setDefinition("http://sensorml.com/ont/swe/property/Acoustic");
+        eventData.setDescription("Start and end of the periods with a LAeq above a threshold");
+
+        eventData.addComponent("time", fac.newTimeStampIsoUTC());
+        eventData.addComponent("source", fac.newText(SWEHelper.getPropertyUri("Name"), "Source", "Name of the acoustic output"));
+        eventData.addComponent("event", fac.newText(SWEHelper.getPropertyUri("Event"), "Event", "start or end"));
+        eventData.addComponent("threshold", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Threshold", null, "dB(A)", DataType.FLOAT));
+        eventData.addComponent("start_time", fac.newTimeStampIsoUTC());
+        eventData.addComponent("duration", fac.newQuantity(SWEHelper.getPropertyUri("Duration"), "Duration", "Time above the threshold at the event", "s", DataType.DOUBLE));
+        eventData.addComponent("peak", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Peak", "Highest LAeq at the event", "dB(A)", DataType.FLOAT));
+
+        // also generate encoding definition
+        eventEncoding = fac.newTextEncoding(",", "\n");
+    }
+
+
+    /**
+     * @param time Event time in seconds
+     * @param source Name of the acoustic output
+     * @param event {@link #EVENT_START} or {@link #EVENT_END}
+     * @param threshold Threshold in dB(A)
+     * @param startTime Time of the first level above the threshold
+     * @param peak Highest level
+     * @return Event record
+     */
+    DataBlock buildEvent(double time, String source, String event, float threshold, double startTime, float peak)
+    {
+        DataBlock dataBlock = eventData.createDataBlock();
+        dataBlock.setDoubleValue(0, time);
+        dataBlock.setStringValue(1, source);
+        dataBlock.setStringValue(2, event);
+        dataBlock.setFloatValue(3, threshold);
+        dataBlock.setDoubleValue(4, startTime);
+        dataBlock.setDoubleValue(5, time - startTime);
+        dataBlock.setFloatValue(6, peak);
+        return dataBlock;
+    }
+
+
+    void publish(DataBlock dataBlock)
+    {
+        latestRecord = dataBlock;
+        latestRecordTime = System.currentTimeMillis();
+        eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, dataBlock));
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        // events are published by the parsing thread of the acoustic outputs
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+        // events are sporadic, use the slow rows period
+        return 1;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return eventData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return eventEncoding;
+    }
+}
@@ -33,30 +33,13 @@
 package org.noise_planet.impl.sensor;
 
 import net.opengis.swe.v20.Count;
-import net.opengis.swe.v20.DataBlock;
 import net.opengis.swe.v20.DataComponent;
-import net.opengis.swe.v20.DataEncoding;
 import net.opengis.swe.v20.DataType;
-import org.sensorhub.api.sensor.SensorDataEvent;
-import org.sensorhub.impl.sensor.AbstractSensorOutput;
 import org.vast.swe.SWEHelper;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.*;
 
-
-public class FastAcousticOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+public class FastAcousticOutput extends AbstractAcousticOutput
 {
-    private DataComponent acousticData;
-    private DataEncoding acousticEncoding;
-    private Timer timer;
-    private int fastCountInDataRecord;
-    
-    private List<String> cachedLines;
     public static final float[] freqs = new float[]{20, 25, 31.5f, 40, 50, 63, 80, 100, 125, 160, 200, 250, 315, 400, 500, 630, 800, 1000, 1250, 1600, 2000, 2500, 3150, 4000, 5000, 6300, 8000, 10000, 12500};
 
     FastAcousticOutput(NoiseMonitoringSensor parentSensor)
@@ -68,20 +51,18 @@ public class FastAcousticOutput extends AbstractSensorOutput<NoiseMonitoringSens
     @Override
     public String getName()
     {
-        return "acoustic_fast";
+        return getParentModule().getOutputName("acoustic_fast");
     }
 
 
     protected void init()
     {
-        fastCountInDataRecord = getParentModule().getConfiguration().fastValuesPerDataRecord;
-
-        cachedLines = new ArrayList<>(fastCountInDataRecord);
+        int fastCountInDataRecord = getParentModule().getConfiguration().fastValuesPerDataRecord;
 
         SWEHelper fac = new SWEHelper();
         
         // build SWE Common record structure
-    	acousticData = fac.newDataRecord();
+        DataComponent acousticData = fac.newDataRecord();
         acousticData.setName(getName());
         acousticData.setDefinition("http://sensorml.com/ont/swe/property/Acoustic");
         acousticData.setDescription("Acoustic indicators measurements");
@@ -98,160 +79,24 @@ public class FastAcousticOutput extends AbstractSensorOutput<NoiseMonitoringSens
             acousticData.addComponent(name, fac.newArray(elementCount, name, fac.newQuantity(SWEHelper.getPropertyUri("dBsplFast"), name, null, "dB", DataType.FLOAT)));
         }
 
-
-        // also generate encoding definition
-        acousticEncoding = fac.newTextEncoding(",", "\n");
-    }
-
-    void initCacheValues(Map<String, List<Float>> cachedValues) {
-        cachedValues.clear();
-        cachedValues.put("leq", new ArrayList<Float>(fastCountInDataRecord));
-        cachedValues.put("laeq", new ArrayList<Float>(fastCountInDataRecord));
-        for (float freq : freqs) {
-            cachedValues.put(Float.valueOf(freq).toString(), new ArrayList<Float>(fastCountInDataRecord));
-        }
-    }
-
-    public List<DataBlock> parseResult(List<String> cachedLines) throws IOException {
-        if(cachedLines.size() < fastCountInDataRecord) {
-            return new ArrayList<>();
-        }
-        List<DataBlock> dataBlockList = new ArrayList<>();
-        DataBlock dataBlock = acousticData.createDataBlock();
-        Map<String, List<Float>> cachedValues = new HashMap<>();
-
-        // Init cache
-        initCacheValues(cachedValues);
-
-        int storedResults = 0;
-        int idCol = 0;
-        while (!cachedLines.isEmpty()) {
-            String line = cachedLines.remove(0);
-            StringTokenizer tokenizer = new StringTokenizer(line, ",");
-            if(storedResults == 0) {
-                // Time UTC
-                dataBlock.setDoubleValue(idCol++, Double.valueOf(tokenizer.nextToken()));
-            } else {
-                tokenizer.nextToken();
-            }
-            // Leq
-            cachedValues.get("leq").add(Float.valueOf(tokenizer.nextToken()));
-            // Laeq
-            cachedValues.get("laeq").add(Float.valueOf(tokenizer.nextToken()));
-
-            // Leq by freq
-            for (float freq : freqs) {
-                cachedValues.get(Float.valueOf(freq).toString()).add(Float.valueOf(tokenizer.nextToken()));
-                //dataBlock.setFloatValue(idCol++, Float.valueOf(tokenizer.nextToken()));
-            }
-            storedResults++;
-            if(storedResults == fastCountInDataRecord) {
-                for(float val : cachedValues.get("leq")) {
-                    dataBlock.setFloatValue(idCol++, val);
-                }
-                for(float val : cachedValues.get("laeq")) {
-                    dataBlock.setFloatValue(idCol++, val);
-                }
-                for (float freq : freqs) {
-                    for(float val : cachedValues.get(Float.valueOf(freq).toString())) {
-                        dataBlock.setFloatValue(idCol++, val);
-                    }
-                }
-                // Push block
-                dataBlockList.add(dataBlock);
-                if(cachedLines.size() < fastCountInDataRecord) {
-                    break;
-                } else {
-                    idCol = 0;
-                    storedResults = 0;
-                    initCacheValues(cachedValues);
-                    dataBlock = acousticData.createDataBlock();
-                }
-            }
+        // leq, laeq and leq by freq
+        String[] columnFields = new String[freqs.length + 2];
+        columnFields[0] = "leq";
+        columnFields[1] = "laeq";
+        for (int i = 0; i < freqs.length; i++) {
+            columnFields[i + 2] = "leq_" + Double.valueOf(freqs[i]).intValue();
         }
-        return dataBlockList;
+        initRecord(acousticData, columnFields, fastCountInDataRecord);
     }
 
+    @Override
     public String getUrl() {
         return getParentModule().getConfiguration().httpFastAcousticStationUrl;
     }
     
-    private void sendMeasurement()
-    {
-        try {
-            URL url = new URL(getUrl());
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(getParentModule().getConfiguration().httpTimeout);
-            conn.setRequestMethod("GET");
-            BufferedReader rd = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String line;
-            while ((line = rd.readLine()) != null) {
-                cachedLines.add(line);
-            }
-            List<DataBlock> dataBlockList = parseResult(cachedLines);
-            rd.close();
-            if(!dataBlockList.isEmpty()) {
-                // update latest record and send event
-                latestRecord = dataBlockList.get(dataBlockList.size() - 1);
-                latestRecordTime = (long)dataBlockList.get(dataBlockList.size() - 1).getDoubleValue(0);
-                eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(),
-                        FastAcousticOutput.this, dataBlockList.toArray(new DataBlock[dataBlockList.size()])));
-            }
-        } catch (IOException ex) {
-            parentSensor.getLogger().error("Error while receiving data", ex);
-        }
-
-
-    }
-
-
-    protected void start()
-    {
-        if (timer != null || getUrl().isEmpty())
-            return;
-        timer = new Timer();
-        
-        // start main measurement generation thread
-        TimerTask task = new TimerTask() {
-            public void run()
-            {
-                sendMeasurement();
-            }            
-        };
-        
-        timer.scheduleAtFixedRate(task, 0, (long)(getAverageSamplingPeriod()*1000));        
-    }
-
-
-    @Override
-    protected void stop()
-    {
-        if (timer != null)
-        {
-            timer.cancel();
-            timer = null;
-        }
-    }
-
-
     @Override
-    public double getAverageSamplingPeriod()
-    {
-    	// approximate update interval in second
-        return 5.0;
-    }
-
-
-    @Override
-    public DataComponent getRecordDescription()
-    {
-        return acousticData;
-    }
-
-
-    @Override
-    public DataEncoding getRecommendedEncoding()
-    {
-        return acousticEncoding;
+    protected double getRowResolution() {
+        // rows are 125 ms apart, half of it tolerates a jitter of the station clock
+        return 0.0625;
     }
 }
@@ -0,0 +1,593 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * <p>
+ * Hub-wide http fetch engine shared by the outputs of all the {@link NoiseMonitoringSensor} instances.
+ * Requests are run on a thread pool and completed through a {@link CompletableFuture}, so the polling
+ * scheduler threads never wait on a socket. Response bodies are always fully consumed and closed without
+ * disconnecting, so the JDK keep-alive cache reuses the same connection for the next poll of a station host.
+ * </p>
+ * <p>
+ * The requests use blocking {@link HttpURLConnection}, a running request holds a pool thread until the station has
+ * sent the whole response or until the timeout. Each station fetches through its own {@link FetchLane}, which runs at
+ * most a fixed number of requests at a time, the other requests of the station wait in the lane without holding a
+ * thread. The pool is sized from the lanes, so a slow or stalled station only delays its own requests. The cost is
+ * one thread per lane slot: a hub of n stations with lanes of k requests runs up to n * k fetch threads, and a
+ * station gets at most k responses per timeout period when it stalls. The thread count of the JVM is the scaling
+ * limit of a hub, a few thousand stations with the default lanes.
+ * </p>
+ * <p>
+ * Compressed responses (gzip or deflate content encoding) are decompressed on the fly, the handler always
+ * receives the decoded body.
+ * </p>
+ * <p>
+ * Long-lived streaming responses are read with {@link #stream} on a thread of the caller, as they would hold a
+ * fetch thread for as long as the station keeps the response open.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class HttpFetchEngine
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpFetchEngine.class);
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private static HttpFetchEngine instance;
+    private static int references = 0;
+
+    private final ThreadPoolExecutor executor;
+    // Largest pool size asked for by acquire, and sum of the open lane sizes
+    private int minimumPoolSize;
+    private int laneThreads = 0;
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+
+
+    private HttpFetchEngine(int poolSize)
+    {
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new FetchThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        minimumPoolSize = poolSize;
+    }
+
+
+    /**
+     * Get the hub fetch engine, creating it on first use. Each call must be matched by a call to {@link #release()}.
+     * @param poolSize Minimum number of fetch threads requested by the caller, the pool grows with the open lanes
+     * @return The shared fetch engine
+     */
+    static synchronized HttpFetchEngine acquire(int poolSize)
+    {
+        if (instance == null) {
+            instance = new HttpFetchEngine(poolSize);
+        } else if (poolSize > instance.minimumPoolSize) {
+            instance.minimumPoolSize = poolSize;
+            instance.resize();
+        }
+        references++;
+        return instance;
+    }
+
+
+    /**
+     * Open the lane of a station, the pool grows by the lane size
+     * @param maxRequests Maximum number of requests of the station running at the same time
+     * @return The lane to run the requests of the station, to close with {@link #closeLane(FetchLane)}
+     */
+    FetchLane openLane(int maxRequests)
+    {
+        FetchLane lane = new FetchLane(Math.max(1, maxRequests));
+        synchronized (HttpFetchEngine.class) {
+            laneThreads += lane.maxRequests;
+            resize();
+        }
+        return lane;
+    }
+
+
+    /**
+     * Close the lane of a stopped station, the pool shrinks by the lane size
+     * @param lane Lane opened by {@link #openLane(int)}
+     */
+    void closeLane(FetchLane lane)
+    {
+        synchronized (HttpFetchEngine.class) {
+            laneThreads -= lane.maxRequests;
+            resize();
+        }
+    }
+
+
+    private void resize()
+    {
+        int poolSize = Math.max(minimumPoolSize, laneThreads);
+        if (executor.isShutdown() || poolSize == executor.getMaximumPoolSize()) {
+            return;
+        }
+        // the core size must never exceed the maximum size
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        } else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+
+    /**
+     * Release a reference on the hub fetch engine. Threads are stopped when the last station is stopped.
+     */
+    static synchronized void release()
+    {
+        if (instance == null || references == 0) {
+            return;
+        }
+        references--;
+        if (references == 0) {
+            LOGGER.debug("Shutdown fetch engine {}", instance);
+            for (Runnable pending : instance.executor.shutdownNow()) {
+                if (pending instanceof FetchTask) {
+                    // never started, complete it so the caller does not wait forever
+                    ((FetchTask) pending).reject(new RejectedExecutionException("Fetch engine released"));
+                }
+            }
+            instance = null;
+        }
+    }
+
+
+    /**
+     * Fetch an url on a pool thread, outside of any lane
+     * @param url Url to get
+     * @param timeout Connection and read timeout in milliseconds
+     * @param handler Consumer of the response body, called on a fetch thread
+     * @return Future completed when the handler has consumed the response, or exceptionally on error
+     */
+    public CompletableFuture<FetchResult> fetch(final String url, final int timeout, final ResponseHandler handler)
+    {
+        return fetch(url, timeout, false, handler);
+    }
+
+
+    /**
+     * Fetch an url on a pool thread, outside of any lane
+     * @param url Url to get
+     * @param timeout Connection and read timeout in milliseconds
+     * @param compression Ask the server for a gzip or deflate compressed response
+     * @param handler Consumer of the decoded response body, called on a fetch thread
+     * @return Future completed when the handler has consumed the response, or exceptionally on error
+     */
+    public CompletableFuture<FetchResult> fetch(final String url, final int timeout, final boolean compression,
+                                                final ResponseHandler handler)
+    {
+        return fetch(url, timeout, compression, null, handler);
+    }
+
+
+    /**
+     * Fetch an url on a pool thread, outside of any lane
+     * @param url Url to get
+     * @param timeout Connection and read timeout in milliseconds
+     * @param compression Ask the server for a gzip or deflate compressed response
+     * @param accept Value of the Accept header, null to let the server choose the content type
+     * @param handler Consumer of the decoded response body, called on a fetch thread
+     * @return Future completed when the handler has consumed the response, or exceptionally on error
+     */
+    public CompletableFuture<FetchResult> fetch(String url, int timeout, boolean compression, String accept,
+                                                ResponseHandler handler)
+    {
+        FetchTask task = new FetchTask(null, url, timeout, compression, accept, handler);
+        execute(task);
+        return task.future;
+    }
+
+
+    private void execute(FetchTask task)
+    {
+        requests.incrementAndGet();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // the engine has been released, the caller completion handler must still reset its state
+            task.reject(ex);
+        }
+    }
+
+
+    /**
+     * Read a long-lived response on the calling thread. The connection is closed when the handler returns,
+     * without reading the rest of the body.
+     * @param url Url to get
+     * @param timeout Connection timeout, and maximum time in milliseconds without any byte from the server
+     * @param accept Value of the Accept header, null to let the server choose the content type
+     * @param handler Consumer of the response body, returns when the stream ends or must be stopped
+     * @return Transfer statistics of the stream
+     * @throws IOException On connection or read error, or if the connection has been closed by another thread
+     */
+    public FetchResult stream(String url, int timeout, String accept, ResponseHandler handler) throws IOException
+    {
+        requests.incrementAndGet();
+        try {
+            return doFetch(url, timeout, false, accept, handler, false);
+        } catch (IOException | RuntimeException ex) {
+            failures.incrementAndGet();
+            throw ex;
+        }
+    }
+
+
+    private FetchResult doFetch(String url, int timeout, boolean compression, String accept,
+                                ResponseHandler handler, boolean keepAlive) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setUseCaches(false);
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Connection", "keep-alive");
+        if (compression) {
+            conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+        if (accept != null) {
+            conn.setRequestProperty("Accept", accept);
+        }
+        int responseCode = conn.getResponseCode();
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            // consume the error body so the connection can go back to the keep-alive cache
+            InputStream errorStream = conn.getErrorStream();
+            if (errorStream != null) {
+                drainAndClose(errorStream);
+            }
+            throw new IOException("Http error " + responseCode + " while fetching " + url);
+        }
+        String contentEncoding = conn.getContentEncoding();
+        CountingInputStream wireStream = new CountingInputStream(conn.getInputStream());
+        CountingInputStream contentStream;
+        try {
+            contentStream = new CountingInputStream(decode(wireStream, contentEncoding, conn.getContentLengthLong()));
+            handler.onResponse(conn, contentStream);
+        } finally {
+            if (keepAlive) {
+                drainAndClose(wireStream);
+            } else {
+                // a stream may never end, drop the connection
+                conn.disconnect();
+            }
+        }
+        return new FetchResult(wireStream.getCount(), contentStream.getCount(), contentEncoding);
+    }
+
+
+    private static InputStream decode(InputStream wireStream, String contentEncoding, long contentLength)
+            throws IOException
+    {
+        if (contentEncoding == null || contentLength == 0) {
+            return wireStream;
+        }
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(wireStream, DRAIN_BUFFER_SIZE);
+            case "deflate":
+                return new InflaterInputStream(wireStream, new Inflater(), DRAIN_BUFFER_SIZE);
+            case "identity":
+                return wireStream;
+            default:
+                throw new IOException("Unsupported content encoding " + contentEncoding);
+        }
+    }
+
+
+    private static void drainAndClose(InputStream inputStream) throws IOException
+    {
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (inputStream.read(buffer) >= 0) {
+                // skip remaining bytes
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * @return Number of fetch threads currently in the pool
+     */
+    public int getPoolSize()
+    {
+        return executor.getPoolSize();
+    }
+
+
+    /**
+     * @return Maximum number of fetch threads, the largest acquired pool size or the sum of the open lane sizes
+     */
+    public int getMaximumPoolSize()
+    {
+        return executor.getMaximumPoolSize();
+    }
+
+
+    /**
+     * @return Number of requests currently running or waiting for a thread, the requests waiting in a lane excluded
+     */
+    public int getPendingCount()
+    {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+
+    /**
+     * @return Number of requests since the fetch engine creation
+     */
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+
+    /**
+     * @return Number of failed requests since the fetch engine creation
+     */
+    public long getFailureCount()
+    {
+        return failures.get();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpFetchEngine{threads=%d/%d, pending=%d, requests=%d, failures=%d}", getPoolSize(),
+                executor.getMaximumPoolSize(), getPendingCount(), getRequestCount(), getFailureCount());
+    }
+
+
+    /**
+     * Transfer statistics of a request
+     */
+    public static class FetchResult
+    {
+        private final long wireBytes;
+        private final long contentBytes;
+        private final String contentEncoding;
+
+        FetchResult(long wireBytes, long contentBytes, String contentEncoding)
+        {
+            this.wireBytes = wireBytes;
+            this.contentBytes = contentBytes;
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * @return Number of body bytes received from the network, compressed if the server compressed the response
+         */
+        public long getWireBytes()
+        {
+            return wireBytes;
+        }
+
+        /**
+         * @return Number of decoded body bytes read by the handler
+         */
+        public long getContentBytes()
+        {
+            return contentBytes;
+        }
+
+        /**
+         * @return Content encoding of the response, null if not compressed
+         */
+        public String getContentEncoding()
+        {
+            return contentEncoding;
+        }
+    }
+
+
+    /**
+     * Consumer of a http response body
+     */
+    public interface ResponseHandler
+    {
+        /**
+         * @param connection Connection, to read response headers
+         * @param inputStream Decoded response body, closed by the fetch engine
+         * @throws IOException On read or parse error
+         */
+        void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException;
+    }
+
+
+    /**
+     * Requests of one station. At most maxRequests of them run at the same time, the others wait in the lane without
+     * holding a fetch thread.
+     */
+    public class FetchLane
+    {
+        private final int maxRequests;
+        private final ArrayDeque<FetchTask> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        FetchLane(int maxRequests)
+        {
+            this.maxRequests = maxRequests;
+        }
+
+        /**
+         * Fetch an url on a pool thread, once the previous requests of the lane leave it a slot
+         * @param url Url to get
+         * @param timeout Connection and read timeout in milliseconds
+         * @param compression Ask the server for a gzip or deflate compressed response
+         * @param accept Value of the Accept header, null to let the server choose the content type
+         * @param handler Consumer of the decoded response body, called on a fetch thread
+         * @return Future completed when the handler has consumed the response, or exceptionally on error
+         */
+        public CompletableFuture<FetchResult> fetch(String url, int timeout, boolean compression, String accept,
+                                                    ResponseHandler handler)
+        {
+            FetchTask task = new FetchTask(this, url, timeout, compression, accept, handler);
+            synchronized (this) {
+                if (running >= maxRequests) {
+                    waiting.addLast(task);
+                    return task.future;
+                }
+                running++;
+            }
+            execute(task);
+            return task.future;
+        }
+
+        private void requestEnded()
+        {
+            FetchTask next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            // the slot goes to the oldest waiting request
+            execute(next);
+        }
+
+        /**
+         * @return Maximum number of requests of the lane running at the same time
+         */
+        public int getMaxRequests()
+        {
+            return maxRequests;
+        }
+
+        /**
+         * @return Number of requests waiting for a slot of the lane
+         */
+        public synchronized int getWaitingCount()
+        {
+            return waiting.size();
+        }
+    }
+
+
+    /**
+     * Request waiting in the pool queue, with the future to fail if the pool is shut down before it runs
+     */
+    private class FetchTask implements Runnable
+    {
+        final CompletableFuture<FetchResult> future = new CompletableFuture<>();
+        private final FetchLane lane;
+        private final String url;
+        private final int timeout;
+        private final boolean compression;
+        private final String accept;
+        private final ResponseHandler handler;
+
+        FetchTask(FetchLane lane, String url, int timeout, boolean compression, String accept,
+                  ResponseHandler handler)
+        {
+            this.lane = lane;
+            this.url = url;
+            this.timeout = timeout;
+            this.compression = compression;
+            this.accept = accept;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                future.complete(doFetch(url, timeout, compression, accept, handler, true));
+            } catch (Exception ex) {
+                failures.incrementAndGet();
+                future.completeExceptionally(ex);
+            } finally {
+                if (lane != null) {
+                    lane.requestEnded();
+                }
+            }
+        }
+
+        void reject(RejectedExecutionException ex)
+        {
+            failures.incrementAndGet();
+            future.completeExceptionally(ex);
+            if (lane != null) {
+                // the waiting requests of the lane are rejected in turn
+                lane.requestEnded();
+            }
+        }
+    }
+
+
+    private static class FetchThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "noisemonitoring-fetch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>
+ * Hub-wide limit of the audio sample bytes read from the stations and not yet published. Readers reserve the bytes
+ * of each chunk before copying it and free them once the record is published, a reader waits while the budget is
+ * exhausted, so the socket is not read faster than the samples are stored.
+ * </p>
+ * <p>
+ * A reader keeps the chunks of its line while it waits for the next one. Each line is therefore limited to an equal
+ * share of the budget between the concurrent readers, so the readers can always complete their lines together
+ * instead of waiting on each other.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class InFlightBudget
+{
+    private static InFlightBudget instance;
+    private static int references = 0;
+
+    private final Semaphore semaphore;
+    private int capacity;
+    private int readers;
+
+
+    private InFlightBudget(int capacity, int readers)
+    {
+        this.capacity = capacity;
+        this.readers = readers;
+        this.semaphore = new Semaphore(capacity);
+    }
+
+
+    /**
+     * Get the hub budget, creating it on first use. Each call must be matched by a call to {@link #release()}.
+     * @param capacity Number of bytes requested by the caller, the budget grows to the largest request
+     * @param readers Maximum number of lines read at the same time, the fetch threads, grows to the largest request
+     * @return The shared budget
+     */
+    static synchronized InFlightBudget acquire(int capacity, int readers)
+    {
+        if (instance == null) {
+            instance = new InFlightBudget(capacity, Math.max(1, readers));
+        } else {
+            synchronized (instance) {
+                if (capacity > instance.capacity) {
+                    instance.semaphore.release(capacity - instance.capacity);
+                    instance.capacity = capacity;
+                }
+                instance.readers = Math.max(instance.readers, readers);
+            }
+        }
+        references++;
+        return instance;
+    }
+
+
+    /**
+     * Release a reference on the hub budget
+     */
+    static synchronized void release()
+    {
+        if (instance == null || references == 0) {
+            return;
+        }
+        references--;
+        if (references == 0) {
+            instance = null;
+        }
+    }
+
+
+    /**
+     * Reserve bytes, waiting for other readers to free them if necessary
+     * @param bytes Number of bytes
+     * @param timeout Maximum wait in ms
+     * @return False if the bytes could not be reserved in time
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean reserve(int bytes, long timeout) throws InterruptedException
+    {
+        return semaphore.tryAcquire(bytes, timeout, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * @param bytes Number of bytes previously reserved
+     */
+    public void free(int bytes)
+    {
+        if (bytes > 0) {
+            semaphore.release(bytes);
+        }
+    }
+
+
+    /**
+     * @return Total number of bytes of the budget
+     */
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * @return Maximum number of bytes of a single line, its share of the budget between the concurrent readers
+     */
+    public synchronized int getMaxLineLength()
+    {
+        return Math.max(1, capacity / readers);
+    }
+
+
+    /**
+     * @return Number of bytes not reserved
+     */
+    public int getAvailableBytes()
+    {
+        return semaphore.availablePermits();
+    }
+}
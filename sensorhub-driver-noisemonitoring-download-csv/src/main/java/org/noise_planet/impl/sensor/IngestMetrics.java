@@ -0,0 +1,216 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>
+ * Cumulative ingest counters of one output, updated by the fetch engine threads.
+ * The {@link MetricsOutput} publishes their increase over each period.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class IngestMetrics
+{
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong skippedPolls = new AtomicLong(0);
+    private final AtomicLong fetchLatency = new AtomicLong(0);
+    private final AtomicLong wireBytes = new AtomicLong(0);
+    private final AtomicLong contentBytes = new AtomicLong(0);
+    private final AtomicLong rows = new AtomicLong(0);
+    private final AtomicLong duplicateRows = new AtomicLong(0);
+    private final AtomicLong lateRows = new AtomicLong(0);
+    private final AtomicLong records = new AtomicLong(0);
+    private final AtomicLong parseTime = new AtomicLong(0);
+    private final AtomicLong publishTime = new AtomicLong(0);
+
+
+    void responseReceived(long latency)
+    {
+        requests.incrementAndGet();
+        fetchLatency.addAndGet(latency);
+    }
+
+    void requestFailed()
+    {
+        failures.incrementAndGet();
+    }
+
+    void pollSkipped()
+    {
+        skippedPolls.incrementAndGet();
+    }
+
+    void bytesReceived(long wire, long content)
+    {
+        wireBytes.addAndGet(wire);
+        contentBytes.addAndGet(content);
+    }
+
+    void rowParsed()
+    {
+        rows.incrementAndGet();
+    }
+
+    void rowDropped()
+    {
+        duplicateRows.incrementAndGet();
+    }
+
+    void lateRowDropped()
+    {
+        lateRows.incrementAndGet();
+    }
+
+    void responseParsed(long duration)
+    {
+        parseTime.addAndGet(duration);
+    }
+
+    void recordPublished(long duration)
+    {
+        records.incrementAndGet();
+        publishTime.addAndGet(duration);
+    }
+
+
+    /**
+     * @return Number of responses received from the station
+     */
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return Number of requests ended by a network, http or parse error
+     */
+    public long getFailureCount()
+    {
+        return failures.get();
+    }
+
+    /**
+     * @return Number of polls skipped because the previous request was still running
+     */
+    public long getSkippedPollCount()
+    {
+        return skippedPolls.get();
+    }
+
+    /**
+     * @return Sum in ns of the delays between the request submission and the response headers
+     */
+    public long getFetchLatency()
+    {
+        return fetchLatency.get();
+    }
+
+    /**
+     * @return Number of response body bytes received from the network
+     */
+    public long getWireBytes()
+    {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return Number of response body bytes parsed, after decompression
+     */
+    public long getContentBytes()
+    {
+        return contentBytes.get();
+    }
+
+    /**
+     * @return Number of rows read from the responses
+     */
+    public long getRowCount()
+    {
+        return rows.get();
+    }
+
+    /**
+     * @return Number of rows dropped because they had already been received
+     */
+    public long getDuplicateRowCount()
+    {
+        return duplicateRows.get();
+    }
+
+    /**
+     * @return Number of rows dropped because they were older than the deduplication window
+     */
+    public long getLateRowCount()
+    {
+        return lateRows.get();
+    }
+
+    /**
+     * @return Number of records published
+     */
+    public long getRecordCount()
+    {
+        return records.get();
+    }
+
+    /**
+     * @return Time in ns spent parsing the responses, between the reads of the body. Waiting for and decompressing the
+     * body, and publication, are excluded
+     */
+    public long getParseTime()
+    {
+        return parseTime.get();
+    }
+
+    /**
+     * @return Time in ns spent publishing the records to the hub
+     */
+    public long getPublishTime()
+    {
+        return publishTime.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("IngestMetrics{requests=%d, failures=%d, skipped=%d, rows=%d, duplicates=%d, late=%d," +
+                " records=%d, wire=%d B, content=%d B, fetch=%d ms, parse=%d ms, publish=%d ms}", getRequestCount(),
+                getFailureCount(), getSkippedPollCount(), getRowCount(), getDuplicateRowCount(), getLateRowCount(), getRecordCount(), getWireBytes(), getContentBytes(),
+                getFetchLatency() / 1000000, getParseTime() / 1000000, getPublishTime() / 1000000);
+    }
+}
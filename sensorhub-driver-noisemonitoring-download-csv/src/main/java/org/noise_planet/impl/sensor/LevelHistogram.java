@@ -0,0 +1,162 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Histogram of sound levels with fixed 0.01 dB bins, adding a level is O(1) whatever the number of samples.
+ * Bins are grouped by 1 dB blocks, so a percentile is found by walking at most 200 blocks and 100 bins.
+ * Levels outside [{@link #MIN_LEVEL}, {@link #MAX_LEVEL}] are counted in the first or last bin.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class LevelHistogram
+{
+    public static final double MIN_LEVEL = -20;
+    public static final double MAX_LEVEL = 180;
+    public static final double RESOLUTION = 0.01;
+    private static final int BINS_PER_BLOCK = 100;
+
+    private final int[] bins = new int[(int) Math.round((MAX_LEVEL - MIN_LEVEL) / RESOLUTION) + 1];
+    private final int[] blocks = new int[(bins.length + BINS_PER_BLOCK - 1) / BINS_PER_BLOCK];
+    private int count = 0;
+    private int minimumBin = Integer.MAX_VALUE;
+    private int maximumBin = -1;
+
+
+    private static int toBin(double level, int binCount)
+    {
+        long bin = Math.round((level - MIN_LEVEL) / RESOLUTION);
+        return (int) Math.max(0, Math.min(binCount - 1, bin));
+    }
+
+
+    private static double toLevel(int bin)
+    {
+        // round in order to remove the binary representation error of the resolution
+        return Math.round((MIN_LEVEL + bin * RESOLUTION) * 100) / 100.0;
+    }
+
+
+    /**
+     * @param level Sound level in dB, NaN values are ignored
+     */
+    public void add(double level)
+    {
+        if (Double.isNaN(level)) {
+            return;
+        }
+        int bin = toBin(level, bins.length);
+        bins[bin]++;
+        blocks[bin / BINS_PER_BLOCK]++;
+        count++;
+        if (bin < minimumBin) {
+            minimumBin = bin;
+        }
+        if (bin > maximumBin) {
+            maximumBin = bin;
+        }
+    }
+
+
+    /**
+     * Remove all the levels, only the used bins are cleared
+     */
+    public void clear()
+    {
+        if (count > 0) {
+            Arrays.fill(bins, minimumBin, maximumBin + 1, 0);
+            Arrays.fill(blocks, minimumBin / BINS_PER_BLOCK, maximumBin / BINS_PER_BLOCK + 1, 0);
+        }
+        count = 0;
+        minimumBin = Integer.MAX_VALUE;
+        maximumBin = -1;
+    }
+
+
+    /**
+     * @return Number of levels
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return Highest level, NaN if empty
+     */
+    public double getMaximum()
+    {
+        return count == 0 ? Double.NaN : toLevel(maximumBin);
+    }
+
+
+    /**
+     * @return Lowest level, NaN if empty
+     */
+    public double getMinimum()
+    {
+        return count == 0 ? Double.NaN : toLevel(minimumBin);
+    }
+
+
+    /**
+     * @param percent Percentage of the samples, ex. 10 for LA10
+     * @return Level exceeded by the given percentage of the samples (nearest rank method), NaN if empty
+     */
+    public double getLevelExceeded(int percent)
+    {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // rank of the sample, from the lowest level
+        long rank = Math.max(1, ((long) count * (100 - percent) + 99) / 100);
+        int block = minimumBin / BINS_PER_BLOCK;
+        long cumulated = 0;
+        while (cumulated + blocks[block] < rank) {
+            cumulated += blocks[block];
+            block++;
+        }
+        int bin = block * BINS_PER_BLOCK;
+        while (cumulated + bins[bin] < rank) {
+            cumulated += bins[bin];
+            bin++;
+        }
+        return toLevel(bin);
+    }
+}
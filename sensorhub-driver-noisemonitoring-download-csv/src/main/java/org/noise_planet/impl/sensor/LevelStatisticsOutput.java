@@ -0,0 +1,212 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataType;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+import org.vast.swe.SWEHelper;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Statistical indicators of the LAeq values of an acoustic output: LA10, LA50, LA90, LAmax and LAmin over
+ * consecutive windows aligned on the clock, ex. each minute, each quarter of hour and each hour.
+ * Levels are added to one {@link LevelHistogram} per window as the rows are parsed, and a record is published
+ * as soon as a row of the following window is received.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class LevelStatisticsOutput extends AbstractSensorOutput<NoiseMonitoringSensor> implements AcousticRowListener
+{
+    private final String name;
+    private final int levelColumn;
+    private DataComponent statisticsData;
+    private DataEncoding statisticsEncoding;
+    private int[] windows;
+    private LevelHistogram[] histograms;
+    // start time in seconds of the current window, NaN before the first level
+    private double[] windowStarts;
+
+    private final Consumer<DataBlock> recordPublisher = new Consumer<DataBlock>() {
+        @Override
+        public void accept(DataBlock dataBlock)
+        {
+            latestRecord = dataBlock;
+            latestRecordTime = System.currentTimeMillis();
+            eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, LevelStatisticsOutput.this, dataBlock));
+        }
+    };
+
+    /**
+     * @param parentSensor Station
+     * @param name Output name, without the station prefix
+     * @param levelColumn Column of the LAeq value in the rows of the source output
+     */
+    LevelStatisticsOutput(NoiseMonitoringSensor parentSensor, String name, int levelColumn)
+    {
+        super(parentSensor);
+        this.name = name;
+        this.levelColumn = levelColumn;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return getParentModule().getOutputName(name);
+    }
+
+
+    protected void init()
+    {
+        List<Integer> windowList = getParentModule().getConfiguration().statisticsWindows;
+        windows = new int[windowList.size()];
+        histograms = new LevelHistogram[windows.length];
+        windowStarts = new double[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = windowList.get(i);
+            histograms[i] = new LevelHistogram();
+            windowStarts[i] = Double.NaN;
+        }
+
+        SWEHelper fac = new SWEHelper();
+
+        // build SWE Common record structure
+        statisticsData = fac.newDataRecord(8);
+        statisticsData.setName(getName());
+        statisticsData.setDefinition("http://sensorml.com/ont/swe/property/Acoustic");
+        statisticsData.setDescription("Statistical acoustic indicators over a time window");
+
+        statisticsData.addComponent("time", fac.newTimeStampIsoUTC());
+        statisticsData.addComponent("window", fac.newQuantity(SWEHelper.getPropertyUri("Duration"), "Window", "Duration of the window starting at time", "s", DataType.INT));
+        statisticsData.addComponent("samples", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Samples", "Number of LAeq values in the window", "value", DataType.INT));
+        statisticsData.addComponent("la10", fac.newQuantity(SWEHelper.getPropertyUri("dBsplStat"), "LA10", "Level exceeded 10% of the time", "dB(A)", DataType.FLOAT));
+        statisticsData.addComponent("la50", fac.newQuantity(SWEHelper.getPropertyUri("dBsplStat"), "LA50", "Level exceeded 50% of the time", "dB(A)", DataType.FLOAT));
+        statisticsData.addComponent("la90", fac.newQuantity(SWEHelper.getPropertyUri("dBsplStat"), "LA90", "Level exceeded 90% of the time", "dB(A)", DataType.FLOAT));
+        statisticsData.addComponent("lamax", fac.newQuantity(SWEHelper.getPropertyUri("dBsplStat"), "LAmax", null, "dB(A)", DataType.FLOAT));
+        statisticsData.addComponent("lamin", fac.newQuantity(SWEHelper.getPropertyUri("dBsplStat"), "LAmin", null, "dB(A)", DataType.FLOAT));
+
+        // also generate encoding definition
+        statisticsEncoding = fac.newTextEncoding(",", "\n");
+    }
+
+
+    @Override
+    public void rowReceived(AcousticRowBuffer rows, int row)
+    {
+        addLevel(rows.getTime(row), rows.getValue(row, levelColumn), recordPublisher);
+    }
+
+
+    /**
+     * Add a level to each window, the windows closed by this level are given to the consumer first.
+     * Levels older than the current window are ignored.
+     * @param time Level timestamp in seconds
+     * @param level LAeq in dB(A)
+     * @param consumer Receives the records of the closed windows
+     */
+    public synchronized void addLevel(double time, double level, Consumer<DataBlock> consumer)
+    {
+        for (int i = 0; i < windows.length; i++) {
+            double windowStart = Math.floor(time / windows[i]) * windows[i];
+            if (Double.isNaN(windowStarts[i])) {
+                windowStarts[i] = windowStart;
+            } else if (windowStart > windowStarts[i]) {
+                if (histograms[i].getCount() > 0) {
+                    consumer.accept(buildRecord(i));
+                }
+                histograms[i].clear();
+                windowStarts[i] = windowStart;
+            } else if (windowStart < windowStarts[i]) {
+                continue;
+            }
+            histograms[i].add(level);
+        }
+    }
+
+
+    private DataBlock buildRecord(int window)
+    {
+        LevelHistogram histogram = histograms[window];
+        DataBlock dataBlock = statisticsData.createDataBlock();
+        dataBlock.setDoubleValue(0, windowStarts[window]);
+        dataBlock.setIntValue(1, windows[window]);
+        dataBlock.setIntValue(2, histogram.getCount());
+        dataBlock.setFloatValue(3, (float) histogram.getLevelExceeded(10));
+        dataBlock.setFloatValue(4, (float) histogram.getLevelExceeded(50));
+        dataBlock.setFloatValue(5, (float) histogram.getLevelExceeded(90));
+        dataBlock.setFloatValue(6, (float) histogram.getMaximum());
+        dataBlock.setFloatValue(7, (float) histogram.getMinimum());
+        return dataBlock;
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        // records are published by the parsing thread of the source output
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+        int period = Integer.MAX_VALUE;
+        for (int window : windows) {
+            period = Math.min(period, window);
+        }
+        return period;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return statisticsData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return statisticsEncoding;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataType;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+import org.vast.swe.SWEHelper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>
+ * Publish the ingest metrics of the http outputs of the station, one record per output each
+ * {@link NoiseMonitoringConfig#metricsPeriod}. Counters and times are the increase over the period, so records
+ * can be stored and charted directly to find slow stations and parser hot spots.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class MetricsOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+{
+    private static final double NANOSECONDS_PER_MILLISECOND = 1e6;
+    private DataComponent metricsData;
+    private DataEncoding metricsEncoding;
+    private volatile ScheduledFuture<?> publishTask;
+    // Counters of each output at the previous publication
+    private final Map<AbstractHttpOutput, long[]> previousCounters = new HashMap<>();
+
+    MetricsOutput(NoiseMonitoringSensor parentSensor)
+    {
+        super(parentSensor);
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return getParentModule().getOutputName("ingest_metrics");
+    }
+
+
+    protected void init()
+    {
+        SWEHelper fac = new SWEHelper();
+
+        // build SWE Common record structure
+        metricsData = fac.newDataRecord(15);
+        metricsData.setName(getName());
+        metricsData.setDefinition("http://sensorml.com/ont/swe/property/IngestMetrics");
+        metricsData.setDescription("Data ingest of each station endpoint since the previous record");
+
+        metricsData.addComponent("time", fac.newTimeStampIsoUTC());
+        metricsData.addComponent("output", fac.newText(SWEHelper.getPropertyUri("Name"), "Output", "Name of the station output"));
+        metricsData.addComponent("requests", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Requests", null, "request", DataType.INT));
+        metricsData.addComponent("failures", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Failed requests", "Network, http or parse errors", "request", DataType.INT));
+        metricsData.addComponent("skipped_polls", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Skipped polls", "Previous request still running", "poll", DataType.INT));
+        metricsData.addComponent("fetch_latency", fac.newQuantity(SWEHelper.getPropertyUri("Duration"), "Fetch latency", "Average delay before the response headers", "ms", DataType.DOUBLE));
+        metricsData.addComponent("wire_bytes", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Bytes on wire", null, "byte", DataType.LONG));
+        metricsData.addComponent("content_bytes", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Bytes parsed", "After decompression", "byte", DataType.LONG));
+        metricsData.addComponent("rows", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Rows parsed", null, "row", DataType.INT));
+        metricsData.addComponent("records", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Records published", null, "record", DataType.INT));
+        metricsData.addComponent("parse_time", fac.newQuantity(SWEHelper.getPropertyUri("Duration"), "Parse time", null, "ms", DataType.DOUBLE));
+        metricsData.addComponent("publish_time", fac.newQuantity(SWEHelper.getPropertyUri("Duration"), "Publish time", null, "ms", DataType.DOUBLE));
+        metricsData.addComponent("pending_rows", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Pending rows", "Rows waiting for the rest of their record", "row", DataType.INT));
+        metricsData.addComponent("duplicate_rows", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Duplicate rows", "Rows already received, not published again", "row", DataType.INT));
+        metricsData.addComponent("late_rows", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Late rows", "Rows older than the deduplication window, not published", "row", DataType.INT));
+
+        // also generate encoding definition
+        metricsEncoding = fac.newTextEncoding(",", "\n");
+    }
+
+
+    /**
+     * Build the record of each output, holding the counter increase since the previous call
+     * @param outputs Outputs to report
+     * @param time Record time in seconds
+     * @return One record per output
+     */
+    DataBlock[] collect(List<AbstractHttpOutput> outputs, double time)
+    {
+        DataBlock[] dataBlocks = new DataBlock[outputs.size()];
+        synchronized (previousCounters) {
+            for (int i = 0; i < dataBlocks.length; i++) {
+                AbstractHttpOutput output = outputs.get(i);
+                IngestMetrics metrics = output.getMetrics();
+                long[] counters = new long[] {metrics.getRequestCount(), metrics.getFailureCount(),
+                        metrics.getSkippedPollCount(), metrics.getFetchLatency(), metrics.getWireBytes(),
+                        metrics.getContentBytes(), metrics.getRowCount(), metrics.getRecordCount(),
+                        metrics.getParseTime(), metrics.getPublishTime(), metrics.getDuplicateRowCount(),
+                        metrics.getLateRowCount()};
+                long[] previous = previousCounters.put(output, counters);
+                if (previous == null) {
+                    previous = new long[counters.length];
+                }
+                long requests = counters[0] - previous[0];
+                DataBlock dataBlock = metricsData.createDataBlock();
+                dataBlock.setDoubleValue(0, time);
+                dataBlock.setStringValue(1, output.getName());
+                dataBlock.setIntValue(2, (int) requests);
+                dataBlock.setIntValue(3, (int) (counters[1] - previous[1]));
+                dataBlock.setIntValue(4, (int) (counters[2] - previous[2]));
+                dataBlock.setDoubleValue(5, requests > 0 ?
+                        (counters[3] - previous[3]) / NANOSECONDS_PER_MILLISECOND / requests : 0);
+                dataBlock.setLongValue(6, counters[4] - previous[4]);
+                dataBlock.setLongValue(7, counters[5] - previous[5]);
+                dataBlock.setIntValue(8, (int) (counters[6] - previous[6]));
+                dataBlock.setIntValue(9, (int) (counters[7] - previous[7]));
+                dataBlock.setDoubleValue(10, (counters[8] - previous[8]) / NANOSECONDS_PER_MILLISECOND);
+                dataBlock.setDoubleValue(11, (counters[9] - previous[9]) / NANOSECONDS_PER_MILLISECOND);
+                dataBlock.setIntValue(12, output.getPendingRowCount());
+                dataBlock.setIntValue(13, (int) (counters[10] - previous[10]));
+                dataBlock.setIntValue(14, (int) (counters[11] - previous[11]));
+                dataBlocks[i] = dataBlock;
+            }
+        }
+        return dataBlocks;
+    }
+
+
+    protected void sendMeasurement()
+    {
+        DataBlock[] dataBlocks = collect(getParentModule().getHttpOutputs(), System.currentTimeMillis() / 1000.0);
+        for (DataBlock dataBlock : dataBlocks) {
+            latestRecord = dataBlock;
+            latestRecordTime = System.currentTimeMillis();
+            eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, dataBlock));
+        }
+    }
+
+
+    protected void start()
+    {
+        if (publishTask != null || getAverageSamplingPeriod() <= 0)
+            return;
+
+        publishTask = getParentModule().getScheduler().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run()
+            {
+                sendMeasurement();
+            }
+        }, (long)(getAverageSamplingPeriod()*1000), (long)(getAverageSamplingPeriod()*1000), TimeUnit.MILLISECONDS);
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        if (publishTask != null)
+        {
+            publishTask.cancel(false);
+            publishTask = null;
+        }
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+        return getParentModule().getConfiguration().metricsPeriod;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return metricsData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return metricsEncoding;
+    }
+}
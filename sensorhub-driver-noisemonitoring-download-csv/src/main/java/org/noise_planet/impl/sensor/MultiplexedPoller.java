@@ -0,0 +1,242 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+
+/**
+ * <p>
+ * Poll the combined station endpoint, which returns the rows of every stream in one response, and give
+ * each section to the parser of its output. This replaces the five requests of the per stream endpoints
+ * by a single one, at the rate of the fastest stream.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ * @see MultiplexedResponseReader
+ */
+public class MultiplexedPoller
+{
+    public static final String WEATHER = "weather";
+    public static final String FAST = "fast";
+    public static final String SLOW = "slow";
+    public static final String SAMPLES = "samples";
+    public static final String STATE = "state";
+
+    private final NoiseMonitoringSensor parentSensor;
+    private final Map<String, AbstractHttpOutput> outputs = new HashMap<>();
+    private volatile ScheduledFuture<?> pollTask;
+    private final AtomicBoolean fetching = new AtomicBoolean(false);
+    private volatile boolean polling = false;
+
+    MultiplexedPoller(NoiseMonitoringSensor parentSensor)
+    {
+        this.parentSensor = parentSensor;
+        outputs.put(WEATHER, parentSensor.weatherDataInterface);
+        outputs.put(FAST, parentSensor.fastAcousticDataInterface);
+        outputs.put(SLOW, parentSensor.slowAcousticDataInterface);
+        outputs.put(SAMPLES, parentSensor.samplesAcousticDataInterface);
+        outputs.put(STATE, parentSensor.stateOutput);
+    }
+
+
+    /**
+     * Give each section of the response to the output of its stream. A parse error only drops the rest of its section.
+     * @param inputStream Combined response
+     * @param latency Delay in ns between the request submission and the response
+     * @return Number of content bytes read by each output
+     * @throws IOException On read error
+     */
+    Map<AbstractHttpOutput, Long> readResponse(InputStream inputStream, long latency) throws IOException
+    {
+        Map<AbstractHttpOutput, Long> sectionBytes = new LinkedHashMap<>();
+        MultiplexedResponseReader reader = new MultiplexedResponseReader(inputStream);
+        String stream;
+        while ((stream = reader.nextSection()) != null) {
+            AbstractHttpOutput output = outputs.get(stream);
+            if (output == null) {
+                parentSensor.getLogger().debug("Skip unknown stream {}", stream);
+                continue;
+            }
+            CountingInputStream section = new CountingInputStream(reader.getSectionStream());
+            try {
+                output.parseResponse(section, "text/csv", latency);
+            } catch (RuntimeException ex) {
+                output.getMetrics().requestFailed();
+                parentSensor.getLogger().error("Error while parsing the " + stream + " section", ex);
+            } finally {
+                Long bytes = sectionBytes.get(output);
+                sectionBytes.put(output, (bytes == null ? 0 : bytes) + section.getCount());
+            }
+        }
+        return sectionBytes;
+    }
+
+
+    /**
+     * Attribute the bytes of a combined response to the outputs, the wire bytes are split in proportion to the content
+     * bytes read by each output
+     * @param wireBytes Bytes received from the network
+     * @param sectionBytes Content bytes read by each output
+     */
+    static void attributeBytes(long wireBytes, Map<AbstractHttpOutput, Long> sectionBytes)
+    {
+        long contentBytes = 0;
+        for (long bytes : sectionBytes.values()) {
+            contentBytes += bytes;
+        }
+        for (Map.Entry<AbstractHttpOutput, Long> entry : sectionBytes.entrySet()) {
+            long bytes = entry.getValue();
+            long share = contentBytes > 0 ? Math.round((double) wireBytes * bytes / contentBytes) : 0;
+            entry.getKey().getMetrics().bytesReceived(share, bytes);
+        }
+    }
+
+
+    protected void sendMeasurement()
+    {
+        if (!fetching.compareAndSet(false, true)) {
+            parentSensor.getLogger().debug("Skip combined poll, previous request still running");
+            return;
+        }
+        HttpFetchEngine.FetchLane fetchLane = parentSensor.getFetchLane();
+        if (fetchLane == null || !polling) {
+            // stopped while this poll was starting
+            fetchEnded();
+            return;
+        }
+        NoiseMonitoringConfig config = parentSensor.getConfiguration();
+        final long requestTime = System.nanoTime();
+        final Map<AbstractHttpOutput, Long> sectionBytes = new HashMap<>();
+        fetchLane.fetch(config.httpStationUrl, config.httpTimeout, config.httpCompression, null,
+                new HttpFetchEngine.ResponseHandler() {
+                    @Override
+                    public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException
+                    {
+                        sectionBytes.putAll(readResponse(inputStream, System.nanoTime() - requestTime));
+                    }
+                }).whenComplete(new BiConsumer<HttpFetchEngine.FetchResult, Throwable>() {
+                    @Override
+                    public void accept(HttpFetchEngine.FetchResult result, Throwable ex)
+                    {
+                        if (result != null) {
+                            attributeBytes(result.getWireBytes(), sectionBytes);
+                        }
+                        fetchEnded();
+                        if (ex != null) {
+                            parentSensor.getLogger().error("Error while receiving data", ex);
+                        }
+                    }
+                });
+    }
+
+
+    private void fetchEnded()
+    {
+        synchronized (fetching) {
+            fetching.set(false);
+            fetching.notifyAll();
+        }
+    }
+
+
+    /**
+     * Wait for the end of the request still running after {@link #stop()}
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if no request is running anymore
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean awaitIdle(long timeout) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (fetching) {
+            while (fetching.get()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                fetching.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return Polling period in seconds, the shortest period of the outputs
+     */
+    public double getAverageSamplingPeriod()
+    {
+        double period = Double.MAX_VALUE;
+        for (AbstractHttpOutput output : outputs.values()) {
+            period = Math.min(period, output.getAverageSamplingPeriod());
+        }
+        return period;
+    }
+
+
+    protected void start()
+    {
+        if (pollTask != null)
+            return;
+
+        polling = true;
+        pollTask = parentSensor.getScheduler().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run()
+            {
+                sendMeasurement();
+            }
+        }, 0, (long)(getAverageSamplingPeriod()*1000), TimeUnit.MILLISECONDS);
+    }
+
+
+    protected void stop()
+    {
+        polling = false;
+        if (pollTask != null)
+        {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * <p>
+ * Split the response of the combined station endpoint into the section of each stream.
+ * A section starts with a header line holding # and the stream name, followed by the rows of the stream
+ * in the format of its own endpoint:
+ * </p>
+ * <pre>
+ * #slow
+ * 1531405786,47.27,40.60
+ * #weather
+ * 1528201993328,52.08,24.64,58.1
+ * </pre>
+ * <p>
+ * Rows must not start with #. Bytes before the first header are ignored.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class MultiplexedResponseReader
+{
+    public static final byte SECTION_MARK = '#';
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private boolean lineStart = true;
+    private boolean sectionEnd = false;
+    private final InputStream sectionStream = new InputStream() {
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return readSection(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return readSection(b, off, len);
+        }
+    };
+
+    public MultiplexedResponseReader(InputStream inputStream)
+    {
+        this.inputStream = inputStream;
+    }
+
+
+    /**
+     * Skip the rest of the current section and read the next section header
+     * @return Stream name of the next section, null at the end of the response
+     * @throws IOException On read error
+     */
+    public String nextSection() throws IOException
+    {
+        // skip the unread rows of the current section
+        byte[] skipped = new byte[BUFFER_SIZE];
+        while (readSection(skipped, 0, skipped.length) >= 0) {
+            // ignore
+        }
+        if (!fill()) {
+            return null;
+        }
+        // header line
+        StringBuilder name = new StringBuilder();
+        position++;
+        while (fill() && buffer[position] != '\n') {
+            name.append((char) (buffer[position++] & 0xFF));
+        }
+        if (position < limit) {
+            position++;
+        }
+        lineStart = true;
+        sectionEnd = false;
+        return name.toString().trim();
+    }
+
+
+    /**
+     * @return Rows of the current section, the stream ends at the next section header
+     */
+    public InputStream getSectionStream()
+    {
+        return sectionStream;
+    }
+
+
+    private int readSection(byte[] b, int off, int len) throws IOException
+    {
+        if (sectionEnd || !fill()) {
+            sectionEnd = true;
+            return -1;
+        }
+        int read = 0;
+        while (read < len && position < limit) {
+            byte c = buffer[position];
+            if (lineStart && c == SECTION_MARK) {
+                sectionEnd = true;
+                break;
+            }
+            lineStart = c == '\n';
+            b[off + read++] = c;
+            position++;
+        }
+        return read == 0 && sectionEnd ? -1 : read;
+    }
+
+
+    /**
+     * @return False if there is no more byte to read
+     */
+    private boolean fill() throws IOException
+    {
+        while (position == limit) {
+            int read = inputStream.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+        }
+        return true;
+    }
+}
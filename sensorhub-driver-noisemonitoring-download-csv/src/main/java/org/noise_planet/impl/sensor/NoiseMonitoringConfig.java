@@ -37,6 +37,9 @@ import org.sensorhub.api.config.DisplayInfo.Required;
 import org.sensorhub.api.sensor.PositionConfig.LLALocation;
 import org.sensorhub.api.sensor.SensorConfig;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 public class NoiseMonitoringConfig extends SensorConfig
 {
@@ -45,7 +48,7 @@ public class NoiseMonitoringConfig extends SensorConfig
     @DisplayInfo(desc="Serial number of the station used to generate its unique ID")
     public String serialNumber = "B8-27-EB-74-CD-A8";
 
-    @DisplayInfo(desc = "Connection timeout to fetch the data in ms")
+    @DisplayInfo(desc = "Connection and read timeout to fetch the data in ms")
     @DisplayInfo.ValueRange(min = 1)
     public int httpTimeout = 5000;
     
@@ -67,6 +70,9 @@ public class NoiseMonitoringConfig extends SensorConfig
     @DisplayInfo(label="Http node state server url", desc = "Pull CSV records from this url")
     public String httpStateStationUrl = "";
 
+    @DisplayInfo(label="Http combined server url", desc = "Pull the rows of all the streams from this url in one request, the stream urls are not polled when set")
+    public String httpStationUrl = "";
+
     @DisplayInfo(label = "How many 125ms results to embed into one record")
     @DisplayInfo.ValueRange(min = 1)
     public int fastValuesPerDataRecord = 80;
@@ -75,6 +81,95 @@ public class NoiseMonitoringConfig extends SensorConfig
     @DisplayInfo.ValueRange(min = 1)
     public int slowValuesPerDataRecord = 10;
 
+    @DisplayInfo(label = "Polling threads", desc = "Number of threads shared by all the stations of the hub to poll the http endpoints")
+    @DisplayInfo.ValueRange(min = 1)
+    public int pollingThreads = 4;
+
+    @DisplayInfo(label = "Fetch threads", desc = "Minimum number of threads shared by all the stations of the hub to run the http requests, the pool also grows by the station fetch requests of each started station")
+    @DisplayInfo.ValueRange(min = 1)
+    public int fetchThreads = 8;
+
+    @DisplayInfo(label = "Station fetch requests", desc = "Maximum number of http requests of the station running at the same time, each holds a fetch thread until the response ends or the http timeout expires. The other requests of the station wait without holding a thread")
+    @DisplayInfo.ValueRange(min = 1)
+    public int stationFetchRequests = 2;
+
+    @DisplayInfo(label = "Http compression", desc = "Ask the station for gzip or deflate compressed responses")
+    public boolean httpCompression = true;
+
+    @DisplayInfo(label = "Binary format", desc = "Ask the fast and slow acoustic endpoints for compact binary frames, CSV is used if the station does not support them")
+    public boolean binaryFormat = false;
+
+    @DisplayInfo(label = "Incremental fetch", desc = "Send the timestamp of the last received row to the station in order to only get new rows")
+    public boolean incrementalFetch = false;
+
+    @DisplayInfo(label = "Cursor parameter", desc = "Query parameter holding the timestamp of the last received row, the station must return rows strictly after it")
+    public String cursorParameter = "since";
+
+    @DisplayInfo(label = "Page size parameter", desc = "Query parameter holding the maximum number of rows to return")
+    public String pageSizeParameter = "limit";
+
+    @DisplayInfo(label = "Page size", desc = "Maximum number of rows per request in incremental mode, a full page is immediately followed by the next one")
+    @DisplayInfo.ValueRange(min = 1)
+    public int pageSize = 800;
+
+    @DisplayInfo(label = "Adaptive polling", desc = "Poll sooner while the station responses grow and later while they are empty, instead of polling at the station data rate")
+    public boolean adaptivePolling = false;
+
+    @DisplayInfo(label = "Minimum polling period", desc = "Shortest delay in ms between two polls of an endpoint in adaptive mode")
+    @DisplayInfo.ValueRange(min = 0)
+    public int minPollingPeriod = 1000;
+
+    @DisplayInfo(label = "Maximum polling period", desc = "Longest delay in ms between two polls of an endpoint in adaptive mode")
+    @DisplayInfo.ValueRange(min = 1)
+    public int maxPollingPeriod = 300000;
+
+    @DisplayInfo(label = "Streaming", desc = "Keep a connection open on the fast and slow acoustic endpoints and receive the rows as soon as the station emits them, instead of polling")
+    public boolean streaming = false;
+
+    @DisplayInfo(label = "Stream timeout", desc = "Reconnect the stream after this time in ms without any data or heartbeat from the station")
+    @DisplayInfo.ValueRange(min = 1)
+    public int streamTimeout = 30000;
+
+    @DisplayInfo(label = "Metrics period", desc = "Time in seconds between two records of the ingest metrics output, 0 to disable it")
+    @DisplayInfo.ValueRange(min = 0)
+    public int metricsPeriod = 60;
+
+    @DisplayInfo(label = "Spool directory", desc = "Keep the rows of the incomplete acoustic records in this directory, so they survive a hub restart. Empty to disable")
+    public String spoolDirectory = "";
+
+    @DisplayInfo(label = "Statistics windows", desc = "Duration in seconds of the windows of the LA10, LA50, LA90, LAmax and LAmin outputs, for example 60, 900 and 3600. Empty to disable them")
+    public List<Integer> statisticsWindows = new ArrayList<>();
+
+    @DisplayInfo(label = "Spectrum intervals", desc = "Duration in seconds of the energetic averages of the fast acoustic rows, one output per duration, for example 1 and 60. Empty to disable them")
+    public List<Integer> spectrumIntervals = new ArrayList<>();
+
+    @DisplayInfo(label = "Pyramid levels", desc = "Bucket duration in seconds of the downsampled fast leq and laeq outputs, each duration must be a multiple of the previous one, for example 1, 10, 60, 600 and 3600. Empty to disable them")
+    public List<Integer> pyramidLevels = new ArrayList<>();
+
+    @DisplayInfo(label = "Exceedance thresholds", desc = "LAeq thresholds in dB(A) of the exceedance events, checked on each slow and fast row, for example 65 and 80. Empty to disable them")
+    public List<Double> exceedanceThresholds = new ArrayList<>();
+
+    @DisplayInfo(label = "Exceedance hysteresis", desc = "An exceedance ends when the LAeq falls below the threshold minus this value in dB")
+    @DisplayInfo.ValueRange(min = 0)
+    public double exceedanceHysteresis = 3;
+
+    @DisplayInfo(label = "Exceedance minimum duration", desc = "Time in seconds above the threshold before an exceedance starts")
+    @DisplayInfo.ValueRange(min = 0)
+    public double exceedanceMinDuration = 1;
+
+    @DisplayInfo(label = "Recycle records", desc = "Reuse the blocks of the acoustic records given back with releaseRecord. Only useful to the code consuming the records itself, the hub storage and event consumers never release them")
+    public boolean recycleDataBlocks = false;
+
+    @DisplayInfo(label = "Samples in-flight bytes", desc = "Maximum number of audio sample bytes read and not yet published, shared by all the stations of the hub. Sample lines longer than this budget divided by the fetch threads are skipped")
+    @DisplayInfo.ValueRange(min = 1)
+    public int samplesMaxInFlightBytes = 16 * 1024 * 1024;
+
+    @DisplayInfo(label = "Samples blob directory", desc = "Write the encrypted audio samples to a content-addressed store in this directory, the records only hold their size, hash and location. Empty to publish the samples in the records")
+    public String samplesBlobDirectory = "";
+
+    @DisplayInfo(label = "Drop duplicate rows", desc = "Do not publish again the weather, state and acoustic rows already received, ex. after a retry or when the station responses overlap. Rows more than 2048 row periods older than the newest one are dropped too, so a late backfill is lost")
+    public boolean deduplicateRows = false;
+
     public String getHttpWeatherStationUrl() {
         return httpWeatherStationUrl;
     }
@@ -95,6 +190,10 @@ public class NoiseMonitoringConfig extends SensorConfig
         return httpSamplesAcousticStationUrl;
     }
 
+    public String getHttpStationUrl() {
+        return httpStationUrl;
+    }
+
     public NoiseMonitoringConfig()
     {
         location.lat = 34.8038;        
@@ -0,0 +1,154 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.sensor.ISensorDataInterface;
+import org.sensorhub.impl.sensor.AbstractSensorModule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * <p>
+ * Manage a fleet of stations in a single module. Each station is a {@link NoiseMonitoringSensor} with its own unique
+ * identifier and outputs, which are exposed by this module under the name station_&lt;serial&gt;_&lt;output&gt; so
+ * they can be stored separately. Stations are not registered as hub modules: they share the hub scheduler, fetch
+ * engine and parser buffers, without a module life cycle and configuration file each.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class NoiseMonitoringFleet extends AbstractSensorModule<NoiseMonitoringFleetConfig>
+{
+    private final List<NoiseMonitoringSensor> stations = new ArrayList<>();
+
+
+    @Override
+    public void init() throws SensorHubException
+    {
+        super.init();
+
+        // generate identifiers
+        generateUniqueID("urn:osh:sensor:noisemonitoring:fleet:", config.id);
+        generateXmlID("NOISE_MONITORING_FLEET_", config.id);
+
+        stations.clear();
+        Set<String> serialNumbers = new HashSet<>();
+        for (NoiseMonitoringConfig stationConfig : config.stations) {
+            if (!serialNumbers.add(stationConfig.serialNumber)) {
+                throw new SensorHubException("Duplicate station serial number " + stationConfig.serialNumber);
+            }
+            if (stationConfig.id == null) {
+                stationConfig.id = config.id + ":" + stationConfig.serialNumber;
+            }
+            NoiseMonitoringSensor station = new NoiseMonitoringSensor();
+            station.setOutputPrefix(getOutputPrefix(stationConfig.serialNumber));
+            station.init(stationConfig);
+            // every output of the station, including the derived outputs and the location
+            for (ISensorDataInterface output : station.getAllOutputs().values()) {
+                addOutput(output, output == station.getLocationOutput());
+            }
+            stations.add(station);
+        }
+    }
+
+
+    /**
+     * @param serialNumber Station serial number
+     * @return Prefix of the station output names, serial number characters not allowed in a name are replaced by _
+     */
+    static String getOutputPrefix(String serialNumber)
+    {
+        return "station_" + serialNumber.replaceAll("[^A-Za-z0-9]", "_") + "_";
+    }
+
+
+    /**
+     * @return Stations of the fleet, in the configuration order
+     */
+    public List<NoiseMonitoringSensor> getStations()
+    {
+        return Collections.unmodifiableList(stations);
+    }
+
+
+    @Override
+    protected void updateSensorDescription()
+    {
+        synchronized (sensorDescLock)
+        {
+            super.updateSensorDescription();
+
+            if (!sensorDescription.isSetDescription())
+                sensorDescription.setDescription("Fleet of " + stations.size() + " noise monitoring stations");
+        }
+    }
+
+
+    @Override
+    public void start() throws SensorHubException
+    {
+        for (NoiseMonitoringSensor station : stations) {
+            station.start();
+        }
+        getLogger().debug("Fleet {} started, {} stations", config.id, stations.size());
+    }
+
+
+    @Override
+    public void stop() throws SensorHubException
+    {
+        for (NoiseMonitoringSensor station : stations) {
+            station.stop();
+        }
+    }
+
+
+    @Override
+    public void cleanup() throws SensorHubException
+    {
+
+    }
+
+
+    @Override
+    public boolean isConnected()
+    {
+        return true;
+    }
+}
@@ -35,18 +35,34 @@ package org.noise_planet.impl.sensor;
 
 import net.opengis.swe.v20.DataBlock;
 import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.sensor.ISensorDataInterface;
 import org.sensorhub.api.sensor.SensorDataEvent;
 import org.sensorhub.impl.sensor.AbstractSensorModule;
+import org.sensorhub.impl.sensor.DefaultLocationOutputLLA;
 import org.vast.sensorML.SMLHelper;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * <p>
- * Driver implementation outputting weather data (temperature, humidity)
+ * Driver of a noise monitoring station, downloading its measurements from http endpoints. The station outputs are the
+ * weather, the slow and fast acoustic indicators, the encrypted audio samples and the station state, plus the ingest
+ * metrics of each output.
+ * </p>
+ * <p>
+ * Optional outputs are computed from the acoustic rows as they are parsed: the level statistics over time windows,
+ * the energetic averages of the fast spectrum, the downsampling pyramid of the fast levels and the threshold
+ * exceedance events. The fast and slow rows of an incomplete record can be spooled to disk, and the sample payloads
+ * offloaded to a blob store.
+ * </p>
+ * <p>
+ * The polling scheduler, the http fetch engine and the samples in-flight budget are shared by every station of the
+ * hub. A station may also be run by a {@link NoiseMonitoringFleet}, which exposes its outputs under a prefixed name.
  * </p>
  *
  * @author Nicolas Fortin, UMRAE Ifsttar
@@ -58,8 +74,24 @@ public class NoiseMonitoringSensor extends AbstractSensorModule<NoiseMonitoringC
     FastAcousticOutput fastAcousticDataInterface;
     SamplesAcousticOutput samplesAcousticDataInterface;
     StateOutput stateOutput;
+    MetricsOutput metricsOutput;
+    LevelStatisticsOutput slowStatisticsOutput;
+    LevelStatisticsOutput fastStatisticsOutput;
+    List<AggregatedAcousticOutput> aggregatedOutputs;
+    DownsamplingPyramid fastPyramid;
+    ExceedanceOutput exceedanceOutput;
+    ExceedanceDetector slowExceedanceDetector;
+    ExceedanceDetector fastExceedanceDetector;
+    MultiplexedPoller multiplexedPoller;
     // Send sensor location after this delay in millisecond
     private static final int LOCATION_UPDATE_DELAY = 15000;
+    private PollingScheduler scheduler;
+    private HttpFetchEngine fetchEngine;
+    private HttpFetchEngine.FetchLane fetchLane;
+    private InFlightBudget sampleBudget;
+    private ScheduledFuture<?> locationTask;
+    // Prefix of the output names, set when the station is part of a fleet
+    private String outputPrefix = "";
 
     
     
@@ -78,16 +110,70 @@ public class NoiseMonitoringSensor extends AbstractSensorModule<NoiseMonitoringC
         fastAcousticDataInterface = new FastAcousticOutput(this);
         samplesAcousticDataInterface = new SamplesAcousticOutput(this);
         stateOutput = new StateOutput(this);
+        metricsOutput = new MetricsOutput(this);
         addOutput(weatherDataInterface, false);
         addOutput(slowAcousticDataInterface, false);
         addOutput(fastAcousticDataInterface, false);
         addOutput(samplesAcousticDataInterface, false);
         addOutput(stateOutput, false);
+        addOutput(metricsOutput, false);
         weatherDataInterface.init();
         slowAcousticDataInterface.init();
         fastAcousticDataInterface.init();
         samplesAcousticDataInterface.init();
         stateOutput.init();
+        metricsOutput.init();
+        if (!config.statisticsWindows.isEmpty()) {
+            // laeq is the second column of the slow and fast rows
+            slowStatisticsOutput = new LevelStatisticsOutput(this, "acoustic_slow_statistics", 1);
+            fastStatisticsOutput = new LevelStatisticsOutput(this, "acoustic_fast_statistics", 1);
+            addOutput(slowStatisticsOutput, false);
+            addOutput(fastStatisticsOutput, false);
+            slowStatisticsOutput.init();
+            fastStatisticsOutput.init();
+            slowAcousticDataInterface.addRowListener(slowStatisticsOutput);
+            fastAcousticDataInterface.addRowListener(fastStatisticsOutput);
+        }
+        aggregatedOutputs = new ArrayList<>();
+        for (int interval : config.spectrumIntervals) {
+            AggregatedAcousticOutput aggregatedOutput = new AggregatedAcousticOutput(this, interval);
+            addOutput(aggregatedOutput, false);
+            aggregatedOutput.init();
+            fastAcousticDataInterface.addRowListener(aggregatedOutput);
+            aggregatedOutputs.add(aggregatedOutput);
+        }
+        if (!config.pyramidLevels.isEmpty()) {
+            PyramidLevelOutput[] levelOutputs = new PyramidLevelOutput[config.pyramidLevels.size()];
+            for (int level = 0; level < levelOutputs.length; level++) {
+                levelOutputs[level] = new PyramidLevelOutput(this, "acoustic_fast", config.pyramidLevels.get(level));
+            }
+            try {
+                fastPyramid = new DownsamplingPyramid(levelOutputs);
+            } catch (IllegalArgumentException ex) {
+                throw new SensorHubException(ex.getMessage(), ex);
+            }
+            for (PyramidLevelOutput levelOutput : levelOutputs) {
+                addOutput(levelOutput, false);
+                levelOutput.init();
+            }
+            fastAcousticDataInterface.addRowListener(fastPyramid);
+        }
+        if (!config.exceedanceThresholds.isEmpty()) {
+            float[] thresholds = new float[config.exceedanceThresholds.size()];
+            for (int i = 0; i < thresholds.length; i++) {
+                thresholds[i] = config.exceedanceThresholds.get(i).floatValue();
+            }
+            exceedanceOutput = new ExceedanceOutput(this);
+            addOutput(exceedanceOutput, false);
+            exceedanceOutput.init();
+            slowExceedanceDetector = new ExceedanceDetector(exceedanceOutput, slowAcousticDataInterface.getName(), 1,
+                    thresholds, (float) config.exceedanceHysteresis, config.exceedanceMinDuration);
+            fastExceedanceDetector = new ExceedanceDetector(exceedanceOutput, fastAcousticDataInterface.getName(), 1,
+                    thresholds.clone(), (float) config.exceedanceHysteresis, config.exceedanceMinDuration);
+            slowAcousticDataInterface.addRowListener(slowExceedanceDetector);
+            fastAcousticDataInterface.addRowListener(fastExceedanceDetector);
+        }
+        multiplexedPoller = new MultiplexedPoller(this);
     }
 
 
@@ -99,7 +185,7 @@ public class NoiseMonitoringSensor extends AbstractSensorModule<NoiseMonitoringC
             super.updateSensorDescription();
             
             if (!sensorDescription.isSetDescription())
-                sensorDescription.setDescription("Weather station gathering measurements from http endpoint");
+                sensorDescription.setDescription("Noise monitoring station gathering measurements from http endpoints");
             
             SMLHelper helper = new SMLHelper(sensorDescription);
             helper.addSerialNumber(config.serialNumber);
@@ -107,35 +193,196 @@ public class NoiseMonitoringSensor extends AbstractSensorModule<NoiseMonitoringC
     }
 
 
+    /**
+     * @return Hub polling scheduler, available while the sensor is started
+     */
+    PollingScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+
+    /**
+     * @return Hub http fetch engine, available while the sensor is started
+     */
+    HttpFetchEngine getFetchEngine()
+    {
+        return fetchEngine;
+    }
+
+
+    /**
+     * @return Lane of this station in the hub fetch engine, available while the sensor is started
+     */
+    HttpFetchEngine.FetchLane getFetchLane()
+    {
+        return fetchLane;
+    }
+
+
+    /**
+     * @return Hub budget of the audio sample bytes, available while the sensor is started
+     */
+    InFlightBudget getSampleBudget()
+    {
+        return sampleBudget;
+    }
+
+
+    /**
+     * @param outputPrefix Prefix of the output names, must be set before init
+     */
+    void setOutputPrefix(String outputPrefix)
+    {
+        this.outputPrefix = outputPrefix;
+    }
+
+
+    /**
+     * @param name Output name
+     * @return Name of the output in the hub, unique when the station is part of a fleet
+     */
+    String getOutputName(String name)
+    {
+        return outputPrefix + name;
+    }
+
+
+    @Override
+    protected void addLocationOutput(double updatePeriod)
+    {
+        synchronized (sensorDescLock)
+        {
+            // named like the other outputs, so the locations of the stations of a fleet do not collide
+            locationOutput = new DefaultLocationOutputLLA<NoiseMonitoringSensor>(this, getLocalFrameID(), updatePeriod)
+            {
+                @Override
+                public String getName()
+                {
+                    return getOutputName(super.getName());
+                }
+            };
+            addOutput(locationOutput, true);
+        }
+    }
+
+
+    /**
+     * @return Location output of the station, null if no location is configured
+     */
+    ISensorDataInterface getLocationOutput()
+    {
+        return locationOutput;
+    }
+
+
+    /**
+     * @return Outputs pulling data from the station
+     */
+    List<AbstractHttpOutput> getHttpOutputs()
+    {
+        List<AbstractHttpOutput> outputs = new ArrayList<>();
+        for (AbstractHttpOutput output : new AbstractHttpOutput[] {weatherDataInterface, slowAcousticDataInterface,
+                fastAcousticDataInterface, samplesAcousticDataInterface, stateOutput}) {
+            if (output != null) {
+                outputs.add(output);
+            }
+        }
+        return outputs;
+    }
+
+
     @Override
     public void start() throws SensorHubException
     {
-        if (weatherDataInterface != null) {
-            weatherDataInterface.start();
+        if (scheduler == null) {
+            scheduler = PollingScheduler.acquire(config.pollingThreads);
         }
-        if (slowAcousticDataInterface != null) {
-            slowAcousticDataInterface.start();
+        if (fetchEngine == null) {
+            fetchEngine = HttpFetchEngine.acquire(config.fetchThreads);
+            fetchLane = fetchEngine.openLane(config.stationFetchRequests);
         }
-        if (fastAcousticDataInterface != null) {
-            fastAcousticDataInterface.start();
+        if (sampleBudget == null) {
+            sampleBudget = InFlightBudget.acquire(config.samplesMaxInFlightBytes, config.fetchThreads);
         }
-        if (samplesAcousticDataInterface != null) {
-            samplesAcousticDataInterface.start();
+        for (AbstractHttpOutput output : getHttpOutputs()) {
+            try {
+                output.openStorage();
+            } catch (IOException ex) {
+                throw new SensorHubException("Unable to open the local storage of " + output.getName(), ex);
+            }
         }
-        if (stateOutput != null) {
-            stateOutput.start();
+        if (!config.httpStationUrl.isEmpty()) {
+            // all the streams are fetched by a single request
+            if (multiplexedPoller != null) {
+                multiplexedPoller.start();
+            }
+        } else {
+            if (weatherDataInterface != null) {
+                weatherDataInterface.start();
+            }
+            if (slowAcousticDataInterface != null) {
+                slowAcousticDataInterface.start();
+            }
+            if (fastAcousticDataInterface != null) {
+                fastAcousticDataInterface.start();
+            }
+            if (samplesAcousticDataInterface != null) {
+                samplesAcousticDataInterface.start();
+            }
+            if (stateOutput != null) {
+                stateOutput.start();
+            }
+        }
+        if (metricsOutput != null) {
+            metricsOutput.start();
         }
-        new Timer().schedule(new TimerTask() {
+        locationTask = scheduler.schedule(new Runnable() {
                                  @Override
                                  public void run() {
                                      // Refresh sensor location
                                      eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(), locationOutput, locationOutput.getLatestRecord()));
                                  }
                              }
-                             , LOCATION_UPDATE_DELAY);
+                             , LOCATION_UPDATE_DELAY, TimeUnit.MILLISECONDS);
+        getLogger().debug("Station {} started, {} {}", config.serialNumber, scheduler, fetchEngine);
     }
     
 
+    /**
+     * Close the local storage of the outputs, once the requests and streams still running have been parsed
+     */
+    private void closeStorage()
+    {
+        // a request ends within its connect and read timeouts, a stream once connected
+        long timeout = 2L * Math.max(config.httpTimeout, config.streaming ? config.streamTimeout : 0);
+        boolean idle = true;
+        try {
+            if (multiplexedPoller != null) {
+                idle = multiplexedPoller.awaitIdle(timeout);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            idle = false;
+        }
+        for (AbstractHttpOutput output : getHttpOutputs()) {
+            try {
+                if (!idle || !output.awaitIdle(timeout)) {
+                    // closing it would let the parser write to a closed file
+                    getLogger().error("{} still receiving data, local storage left open", output.getName());
+                    continue;
+                }
+                output.closeStorage();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                idle = false;
+            } catch (IOException ex) {
+                getLogger().error("Unable to close the local storage of " + output.getName(), ex);
+            }
+        }
+    }
+
+
     @Override
     public void stop() throws SensorHubException
     {
@@ -154,6 +401,32 @@ public class NoiseMonitoringSensor extends AbstractSensorModule<NoiseMonitoringC
         if (samplesAcousticDataInterface != null) {
             samplesAcousticDataInterface.stop();
         }
+        if (metricsOutput != null) {
+            metricsOutput.stop();
+        }
+        if (multiplexedPoller != null) {
+            multiplexedPoller.stop();
+        }
+        closeStorage();
+        if (locationTask != null) {
+            locationTask.cancel(false);
+            locationTask = null;
+        }
+        if (scheduler != null) {
+            getLogger().debug("Station {} stopped, {}", config.serialNumber, scheduler);
+            scheduler = null;
+            PollingScheduler.release();
+        }
+        if (fetchEngine != null) {
+            fetchEngine.closeLane(fetchLane);
+            fetchLane = null;
+            fetchEngine = null;
+            HttpFetchEngine.release();
+        }
+        if (sampleBudget != null) {
+            sampleBudget = null;
+            InFlightBudget.release();
+        }
     }
     
 
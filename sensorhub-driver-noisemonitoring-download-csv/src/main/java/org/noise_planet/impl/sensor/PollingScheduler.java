@@ -0,0 +1,259 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>
+ * Hub-wide scheduler shared by all the {@link NoiseMonitoringSensor} instances.
+ * Outputs register their polling task here instead of running their own Timer thread,
+ * so the number of threads is bounded whatever the number of stations.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class PollingScheduler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollingScheduler.class);
+
+    private static PollingScheduler instance;
+    private static int references = 0;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicLong maximumLag = new AtomicLong(0);
+    private final AtomicLong lateRuns = new AtomicLong(0);
+    private final AtomicLong executions = new AtomicLong(0);
+
+
+    private PollingScheduler(int poolSize)
+    {
+        executor = new ScheduledThreadPoolExecutor(poolSize, new PollingThreadFactory());
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+
+    /**
+     * Get the hub scheduler, creating it on first use. Each call must be matched by a call to {@link #release()}.
+     * @param poolSize Number of polling threads requested by the caller, the pool grows to the largest request
+     * @return The shared scheduler
+     */
+    static synchronized PollingScheduler acquire(int poolSize)
+    {
+        if (instance == null) {
+            instance = new PollingScheduler(poolSize);
+        } else if (poolSize > instance.executor.getCorePoolSize()) {
+            instance.executor.setCorePoolSize(poolSize);
+        }
+        references++;
+        return instance;
+    }
+
+
+    /**
+     * Release a reference on the hub scheduler. Threads are stopped when the last station is stopped.
+     */
+    static synchronized void release()
+    {
+        if (instance == null || references == 0) {
+            return;
+        }
+        references--;
+        if (references == 0) {
+            LOGGER.debug("Shutdown polling scheduler {}", instance);
+            instance.executor.shutdownNow();
+            instance = null;
+        }
+    }
+
+
+    /**
+     * Register a periodic task, with the same fixed-rate semantics as {@link java.util.Timer#scheduleAtFixedRate}
+     * @param task Task to run
+     * @param initialDelay Delay before first execution
+     * @param period Time between the start of successive executions
+     * @param unit Time unit of delay and period
+     * @return Handle used to cancel the task
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit)
+    {
+        return executor.scheduleAtFixedRate(new MonitoredTask(task, unit.toMillis(initialDelay), unit.toMillis(period)),
+                initialDelay, period, unit);
+    }
+
+
+    /**
+     * Register a one shot task
+     * @param task Task to run
+     * @param delay Delay before execution
+     * @param unit Time unit of delay
+     * @return Handle used to cancel the task
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        return executor.schedule(new MonitoredTask(task, unit.toMillis(delay), 0), delay, unit);
+    }
+
+
+    /**
+     * @return Number of threads currently in the pool
+     */
+    public int getPoolSize()
+    {
+        return executor.getPoolSize();
+    }
+
+
+    /**
+     * @return Largest number of threads that have ever simultaneously been in the pool
+     */
+    public int getLargestPoolSize()
+    {
+        return executor.getLargestPoolSize();
+    }
+
+
+    /**
+     * @return Number of threads actively running a polling task
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * @return Number of registered tasks waiting for their next execution
+     */
+    public int getScheduledTaskCount()
+    {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * @return Number of task executions since the scheduler creation
+     */
+    public long getExecutionCount()
+    {
+        return executions.get();
+    }
+
+
+    /**
+     * @return Maximum delay in ms between the planned time of a task and its effective start.
+     * A growing value means the pool is too small for the number of stations.
+     */
+    public long getMaximumLag()
+    {
+        return maximumLag.get();
+    }
+
+
+    /**
+     * @return Number of task executions that started more than one second after the planned time
+     */
+    public long getLateRuns()
+    {
+        return lateRuns.get();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("PollingScheduler{threads=%d/%d, active=%d, largest=%d, scheduled=%d, executions=%d," +
+                        " maxLag=%d ms, lateRuns=%d}", getPoolSize(), executor.getCorePoolSize(), getActiveCount(),
+                getLargestPoolSize(), getScheduledTaskCount(), getExecutionCount(), getMaximumLag(), getLateRuns());
+    }
+
+
+    /**
+     * Wrap tasks in order to measure the scheduling lag. Exceptions are logged, as a periodic task throwing
+     * an exception would otherwise be silently cancelled by the executor.
+     */
+    private class MonitoredTask implements Runnable
+    {
+        private final Runnable task;
+        private final long period;
+        private long plannedTime;
+
+        MonitoredTask(Runnable task, long initialDelay, long period)
+        {
+            this.task = task;
+            this.period = period;
+            this.plannedTime = System.currentTimeMillis() + initialDelay;
+        }
+
+        @Override
+        public void run()
+        {
+            long lag = System.currentTimeMillis() - plannedTime;
+            plannedTime += period;
+            maximumLag.accumulateAndGet(lag, Math::max);
+            executions.incrementAndGet();
+            if (lag > 1000) {
+                lateRuns.incrementAndGet();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Error in polling task", ex);
+            }
+        }
+    }
+
+
+    private static class PollingThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "noisemonitoring-poll-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataType;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.sensor.AbstractSensorOutput;
+import org.vast.swe.SWEHelper;
+
+
+/**
+ * <p>
+ * One level of the {@link DownsamplingPyramid}: energetic mean, minimum and maximum of the leq and laeq values over
+ * buckets of a fixed duration. A viewer picks the coarsest level with enough buckets for its width.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class PyramidLevelOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+{
+    private final String sourceName;
+    private final int duration;
+    private DataComponent levelData;
+    private DataEncoding levelEncoding;
+
+    /**
+     * @param parentSensor Station
+     * @param sourceName Name of the source output, without the station prefix
+     * @param duration Bucket duration in seconds
+     */
+    PyramidLevelOutput(NoiseMonitoringSensor parentSensor, String sourceName, int duration)
+    {
+        super(parentSensor);
+        this.sourceName = sourceName;
+        this.duration = duration;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return getParentModule().getOutputName(sourceName + "_pyramid_" + duration + "s");
+    }
+
+
+    protected void init()
+    {
+        SWEHelper fac = new SWEHelper();
+
+        // build SWE Common record structure
+        levelData = fac.newDataRecord(8);
+        levelData.setName(getName());
+        levelData.setDefinition("http://sensorml.com/ont/swe/property/Acoustic");
+        levelData.setDescription("Acoustic levels downsampled to " + duration + " s");
+
+        levelData.addComponent("time", fac.newTimeStampIsoUTC());
+        levelData.addComponent("samples", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Samples", "Number of rows in the bucket", "row", DataType.INT));
+        levelData.addComponent("leq_mean", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Leq", "Energetic mean", "dB", DataType.FLOAT));
+        levelData.addComponent("leq_min", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Leq min", null, "dB", DataType.FLOAT));
+        levelData.addComponent("leq_max", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "Leq max", null, "dB", DataType.FLOAT));
+        levelData.addComponent("laeq_mean", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "LAeq", "Energetic mean", "dB(A)", DataType.FLOAT));
+        levelData.addComponent("laeq_min", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "LAeq min", null, "dB(A)", DataType.FLOAT));
+        levelData.addComponent("laeq_max", fac.newQuantity(SWEHelper.getPropertyUri("dBspl"), "LAeq max", null, "dB(A)", DataType.FLOAT));
+
+        // also generate encoding definition
+        levelEncoding = fac.newTextEncoding(",", "\n");
+    }
+
+
+    /**
+     * @return Bucket duration in seconds
+     */
+    public int getDuration()
+    {
+        return duration;
+    }
+
+
+    void publish(DataBlock dataBlock)
+    {
+        latestRecord = dataBlock;
+        latestRecordTime = System.currentTimeMillis();
+        eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, dataBlock));
+    }
+
+
+    @Override
+    protected void stop()
+    {
+        // records are published by the parsing thread of the source output
+    }
+
+
+    @Override
+    public double getAverageSamplingPeriod()
+    {
+        return duration;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return levelData;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return levelEncoding;
+    }
+}
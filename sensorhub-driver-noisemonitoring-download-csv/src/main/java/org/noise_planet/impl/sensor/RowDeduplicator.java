@@ -0,0 +1,180 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Find the rows already received by an output from their time stamp. Time stamps are rounded to a key of the
+ * given resolution. The highest key received is the high-water mark, and a ring bitmap holds the keys received in
+ * the window below it, so late rows in the window are accepted once. Rows older than the window are considered
+ * already received, see {@link #isLate(double)}. The bitmap is 256 bytes: checking a row reads one bit, and
+ * recording a row updates at most the 32 words of the bitmap whatever the gap with the previous row.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class RowDeduplicator
+{
+    // number of keys below the high-water mark, power of two
+    static final int WINDOW = 2048;
+    private final double resolution;
+    private final long[] bitmap = new long[WINDOW / Long.SIZE];
+    private long highWaterMark = Long.MIN_VALUE;
+
+    /**
+     * @param resolution Time stamps closer than this value are the same row, in the unit of the time stamps.
+     *                   The window covers {@link #WINDOW} times this duration
+     */
+    public RowDeduplicator(double resolution)
+    {
+        this.resolution = resolution;
+    }
+
+
+    private long toKey(double time)
+    {
+        return Math.round(time / resolution);
+    }
+
+
+    /**
+     * @param time Row time stamp, as sent by the station
+     * @return True if a row with this time stamp has already been recorded
+     */
+    public boolean isDuplicate(double time)
+    {
+        long key = toKey(time);
+        if (highWaterMark == Long.MIN_VALUE || key > highWaterMark) {
+            return false;
+        }
+        if (highWaterMark - key >= WINDOW) {
+            return true;
+        }
+        int bit = (int) (key & (WINDOW - 1));
+        return (bitmap[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+
+    /**
+     * @param time Row time stamp, as sent by the station
+     * @return True if the row is older than the window, it is then considered received whether or not it has been
+     */
+    public boolean isLate(double time)
+    {
+        return highWaterMark != Long.MIN_VALUE && highWaterMark - toKey(time) >= WINDOW;
+    }
+
+
+    /**
+     * Set or clear the bits of the keys first to last, whole words at once
+     * @param first First key
+     * @param last Last key, at most {@link #WINDOW} keys after the first one
+     * @param received New value of the bits
+     */
+    private void fill(long first, long last, boolean received)
+    {
+        long key = first;
+        while (key <= last) {
+            int bit = (int) (key & (WINDOW - 1));
+            int shift = bit & (Long.SIZE - 1);
+            int count = (int) Math.min(last - key + 1, Long.SIZE - shift);
+            long mask = (count == Long.SIZE ? -1L : (1L << count) - 1) << shift;
+            if (received) {
+                bitmap[bit >>> 6] |= mask;
+            } else {
+                bitmap[bit >>> 6] &= ~mask;
+            }
+            key += count;
+        }
+    }
+
+
+    /**
+     * Record a received row
+     * @param time Row time stamp, as sent by the station
+     */
+    public void markReceived(double time)
+    {
+        long key = toKey(time);
+        if (highWaterMark == Long.MIN_VALUE) {
+            highWaterMark = key;
+        } else if (key > highWaterMark) {
+            // the keys between the previous and the new mark leave the window
+            if (key - highWaterMark >= WINDOW) {
+                Arrays.fill(bitmap, 0);
+            } else {
+                fill(highWaterMark + 1, key - 1, false);
+            }
+            highWaterMark = key;
+        } else if (highWaterMark - key >= WINDOW) {
+            return;
+        }
+        int bit = (int) (key & (WINDOW - 1));
+        bitmap[bit >>> 6] |= 1L << bit;
+    }
+
+
+    /**
+     * Record all the rows up to a time stamp, ex. the rows received before a restart
+     * @param time Time stamp of the last received row, as sent by the station
+     */
+    public void markReceivedUpTo(double time)
+    {
+        long key = toKey(time);
+        long first;
+        if (highWaterMark == Long.MIN_VALUE || key - highWaterMark >= WINDOW) {
+            Arrays.fill(bitmap, -1L);
+            highWaterMark = key;
+            return;
+        } else if (key > highWaterMark) {
+            first = highWaterMark + 1;
+            highWaterMark = key;
+        } else {
+            first = highWaterMark - WINDOW + 1;
+        }
+        // every key of the window up to the time stamp is received
+        fill(first, key, true);
+    }
+
+
+    /**
+     * @return Time stamp of the most recent row, NaN if none
+     */
+    public double getHighWaterMark()
+    {
+        return highWaterMark == Long.MIN_VALUE ? Double.NaN : highWaterMark * resolution;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * <p>
+ * Append-only memory-mapped file holding the rows received by an output and not yet published in a record.
+ * Rows are written before being published and consumed once their record has been published, so the
+ * rows of an incomplete record and the fetch cursor survive a hub restart without downloading them again.
+ * Writes go to the page cache, they are kept if the hub process is killed and flushed to disk on close.
+ * </p>
+ * <p>
+ * Layout: a header (magic, version, column count, consumed and written row counts, cursor) followed by the rows,
+ * each one being the timestamp as a double followed by the column values as floats. The rows are dropped
+ * when every row has been consumed, and compacted when the consumed rows fill half of the file. A file grown
+ * by a backlog is truncated back to its initial size once every row has been consumed, or on the next open.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class RowSpool implements Closeable
+{
+    // NMSP
+    static final int MAGIC = 0x4E4D5350;
+    static final int VERSION = 1;
+    private static final int OFFSET_COLUMNS = 8;
+    private static final int OFFSET_CONSUMED = 16;
+    private static final int OFFSET_WRITTEN = 24;
+    private static final int OFFSET_CURSOR = 32;
+    static final int HEADER_SIZE = 40;
+
+    private final FileChannel channel;
+    private final int columns;
+    private final int rowSize;
+    private final int initialCapacity;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int consumed;
+    private int written;
+    private double cursor;
+
+    private RowSpool(FileChannel channel, int columns, int initialCapacity) throws IOException
+    {
+        this.channel = channel;
+        this.columns = columns;
+        this.rowSize = Double.BYTES + columns * Float.BYTES;
+        this.initialCapacity = Math.max(1, initialCapacity);
+        cursor = Double.NaN;
+        long size = channel.size();
+        // the header is read before mapping, the file is not mapped yet if it has to be truncated
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // until the header is complete or the end of the file
+        }
+        int fileRows = (int) (Math.max(0, size - HEADER_SIZE) / rowSize);
+        if (!header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == VERSION &&
+                header.getInt(OFFSET_COLUMNS) == columns) {
+            written = (int) Math.max(0, Math.min(fileRows, header.getLong(OFFSET_WRITTEN)));
+            consumed = (int) Math.max(0, Math.min(written, header.getLong(OFFSET_CONSUMED)));
+            cursor = header.getDouble(OFFSET_CURSOR);
+        }
+        if (consumed == written) {
+            // nothing pending, new file, or written with another layout
+            consumed = 0;
+            written = 0;
+            if (fileRows > this.initialCapacity) {
+                channel.truncate(HEADER_SIZE + (long) this.initialCapacity * rowSize);
+            }
+            map(this.initialCapacity);
+        } else {
+            map(Math.max(this.initialCapacity, fileRows));
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(OFFSET_COLUMNS, columns);
+        writeHeader();
+    }
+
+
+    /**
+     * Open or create a spool file
+     * @param file Spool file, its rows are discarded if they do not have the expected column count
+     * @param columns Number of float values per row
+     * @param initialCapacity Number of rows allocated in a new file, the file grows if necessary
+     * @return The spool
+     * @throws IOException If the file can not be opened
+     */
+    public static RowSpool open(File file, int columns, int initialCapacity) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create the spool directory " + parent);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new RowSpool(channel, columns, initialCapacity);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+
+    private void map(int rows) throws IOException
+    {
+        capacity = rows;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) rows * rowSize);
+    }
+
+
+    private void writeHeader()
+    {
+        buffer.putLong(OFFSET_CONSUMED, consumed);
+        buffer.putLong(OFFSET_WRITTEN, written);
+        buffer.putDouble(OFFSET_CURSOR, cursor);
+    }
+
+
+    /**
+     * Write a row received from the station
+     * @param rows Row buffer
+     * @param row Index of the row in the buffer
+     * @throws IOException If the file can not grow
+     */
+    public synchronized void append(AcousticRowBuffer rows, int row) throws IOException
+    {
+        if (buffer == null) {
+            return;
+        }
+        if (written == capacity) {
+            map(Math.max(1, capacity * 2));
+        }
+        int position = HEADER_SIZE + written * rowSize;
+        double time = rows.getTime(row);
+        buffer.putDouble(position, time);
+        position += Double.BYTES;
+        for (int column = 0; column < columns; column++) {
+            buffer.putFloat(position, rows.getValue(row, column));
+            position += Float.BYTES;
+        }
+        written++;
+        if (Double.isNaN(cursor) || time > cursor) {
+            cursor = time;
+        }
+        writeHeader();
+    }
+
+
+    /**
+     * Release the oldest rows, once their record has been published
+     * @param count Number of rows
+     * @throws IOException If the file can not be shrunk
+     */
+    public synchronized void consume(int count) throws IOException
+    {
+        if (buffer == null) {
+            return;
+        }
+        consumed = Math.min(written, consumed + count);
+        if (consumed == written) {
+            // trim
+            consumed = 0;
+            written = 0;
+            if (capacity > initialCapacity) {
+                shrink();
+            }
+        } else if (consumed > capacity / 2) {
+            // compact
+            byte[] pending = new byte[(written - consumed) * rowSize];
+            buffer.position(HEADER_SIZE + consumed * rowSize);
+            buffer.get(pending);
+            buffer.position(HEADER_SIZE);
+            buffer.put(pending);
+            written -= consumed;
+            consumed = 0;
+        }
+        writeHeader();
+    }
+
+
+    private void shrink() throws IOException
+    {
+        map(initialCapacity);
+        try {
+            channel.truncate(HEADER_SIZE + (long) initialCapacity * rowSize);
+        } catch (IOException ex) {
+            // some platforms refuse to truncate a file while the previous mapping is not garbage collected,
+            // the file is then truncated on the next open
+        }
+    }
+
+
+    /**
+     * Append the spooled rows not yet consumed to a row buffer
+     * @param rows Destination
+     */
+    public synchronized void replay(AcousticRowBuffer rows)
+    {
+        if (buffer == null) {
+            return;
+        }
+        for (int row = consumed; row < written; row++) {
+            int position = HEADER_SIZE + row * rowSize;
+            int slot = rows.appendRow(buffer.getDouble(position));
+            position += Double.BYTES;
+            for (int column = 0; column < columns; column++) {
+                rows.setValue(slot, column, buffer.getFloat(position));
+                position += Float.BYTES;
+            }
+        }
+    }
+
+
+    /**
+     * @return Number of rows written and not consumed
+     */
+    public synchronized int getPendingRowCount()
+    {
+        return written - consumed;
+    }
+
+
+    /**
+     * @return Timestamp of the newest row ever written, NaN if none
+     */
+    public synchronized double getCursor()
+    {
+        return cursor;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        channel.close();
+    }
+}
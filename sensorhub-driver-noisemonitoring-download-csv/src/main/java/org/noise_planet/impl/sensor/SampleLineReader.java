@@ -0,0 +1,293 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.DoublePredicate;
+
+
+/**
+ * <p>
+ * Read the encrypted sample lines (time stamp, comma, payload) of a response. Columns after the payload are skipped. The stream is read in chunks of a
+ * fixed size and the payload is copied chunk by chunk, each chunk being first reserved in the {@link InFlightBudget}.
+ * The bytes of a line stay reserved until {@link #freeLine()} is called after its record has been published.
+ * Lines longer than the maximum length, and lines already received, are skipped without being kept in memory.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class SampleLineReader
+{
+    private static final int INITIAL_PAYLOAD_SIZE = 4096;
+    // the payload buffer is dropped after a line above this size, so a large line does not stay in memory
+    private static final int RETAINED_PAYLOAD_SIZE = 1 << 20;
+
+    private final InputStream inputStream;
+    private final InFlightBudget budget;
+    private final int maxLineLength;
+    private final long timeout;
+    private final DoublePredicate duplicate;
+    private final byte[] chunk;
+    private int position = 0;
+    private int limit = 0;
+    private final char[] timeChars = new char[64];
+    private byte[] payload = new byte[INITIAL_PAYLOAD_SIZE];
+    private int payloadLength = 0;
+    private double time;
+    private int reserved = 0;
+    private long skippedLines = 0;
+
+    /**
+     * @param inputStream Response body
+     * @param chunkSize Number of bytes read from the stream at once
+     * @param budget Hub budget of the payload bytes, null to only limit the line length
+     * @param maxLineLength Maximum payload length in bytes, longer lines are skipped
+     * @param timeout Maximum time in ms to wait for the budget
+     */
+    public SampleLineReader(InputStream inputStream, int chunkSize, InFlightBudget budget, int maxLineLength,
+                            long timeout)
+    {
+        this(inputStream, chunkSize, budget, maxLineLength, timeout, null);
+    }
+
+
+    /**
+     * @param inputStream Response body
+     * @param chunkSize Number of bytes read from the stream at once
+     * @param budget Hub budget of the payload bytes, null to only limit the line length
+     * @param maxLineLength Maximum payload length in bytes, longer lines are skipped
+     * @param timeout Maximum time in ms to wait for the budget
+     * @param duplicate Tested with the time stamp of each line, the line is skipped before its payload is read when
+     *                  true. Null to keep every line.
+     */
+    public SampleLineReader(InputStream inputStream, int chunkSize, InFlightBudget budget, int maxLineLength,
+                            long timeout, DoublePredicate duplicate)
+    {
+        this.duplicate = duplicate;
+        this.inputStream = inputStream;
+        this.chunk = new byte[chunkSize];
+        this.budget = budget;
+        this.maxLineLength = maxLineLength;
+        this.timeout = timeout;
+    }
+
+
+    private boolean fill() throws IOException
+    {
+        int read;
+        do {
+            read = inputStream.read(chunk);
+        } while (read == 0);
+        position = 0;
+        limit = Math.max(0, read);
+        return read > 0;
+    }
+
+
+    private void reserve(int bytes) throws IOException
+    {
+        if (budget != null) {
+            try {
+                if (!budget.reserve(bytes, timeout)) {
+                    throw new IOException("In-flight sample budget exhausted for " + timeout + " ms");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the in-flight sample budget");
+            }
+        }
+        reserved += bytes;
+    }
+
+
+    private void skipToEndOfLine() throws IOException
+    {
+        while (position < limit || fill()) {
+            if (chunk[position++] == '\n') {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Read the next line
+     * @return False at the end of the stream
+     * @throws IOException On read error, malformed line or if the budget can not be reserved in time
+     */
+    public boolean nextLine() throws IOException
+    {
+        freeLine();
+        while (true) {
+            // time stamp
+            int timeLength = 0;
+            while (true) {
+                if (position == limit && !fill()) {
+                    if (timeLength == 0) {
+                        return false;
+                    }
+                    throw new IOException("Truncated sample line");
+                }
+                byte b = chunk[position++];
+                if (b == ',') {
+                    break;
+                } else if (b == '\n') {
+                    if (timeLength > 0) {
+                        throw new IOException("Sample line without payload");
+                    }
+                } else if (b != '\r') {
+                    if (timeLength == timeChars.length) {
+                        throw new IOException("Malformed sample line time stamp");
+                    }
+                    timeChars[timeLength++] = (char) b;
+                }
+            }
+            try {
+                time = Double.parseDouble(new String(timeChars, 0, timeLength));
+            } catch (NumberFormatException ex) {
+                throw new IOException("Malformed sample line time stamp", ex);
+            }
+            if (duplicate != null && duplicate.test(time)) {
+                // already received, the payload is neither copied nor reserved
+                skipToEndOfLine();
+                continue;
+            }
+            // payload, up to the next column or the end of line
+            boolean tooLong = false;
+            boolean lastColumn = true;
+            while (position < limit || fill()) {
+                int end = position;
+                while (end < limit && chunk[end] != '\n' && chunk[end] != ',') {
+                    end++;
+                }
+                int length = end - position;
+                if (!tooLong && payloadLength + length > maxLineLength) {
+                    tooLong = true;
+                    freeLine();
+                }
+                if (!tooLong && length > 0) {
+                    reserve(length);
+                    if (payloadLength + length > payload.length) {
+                        byte[] grown = new byte[Math.max(payloadLength + length, payload.length * 2)];
+                        System.arraycopy(payload, 0, grown, 0, payloadLength);
+                        payload = grown;
+                    }
+                    System.arraycopy(chunk, position, payload, payloadLength, length);
+                    payloadLength += length;
+                }
+                position = end;
+                if (end < limit) {
+                    // skip the separator
+                    lastColumn = chunk[position++] == '\n';
+                    break;
+                }
+            }
+            if (!lastColumn) {
+                // the columns after the payload are not part of the samples
+                skipToEndOfLine();
+            }
+            if (tooLong) {
+                skippedLines++;
+                continue;
+            }
+            if (payloadLength > 0 && payload[payloadLength - 1] == '\r') {
+                payloadLength--;
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * @return Time stamp of the current line
+     */
+    public double getTime()
+    {
+        return time;
+    }
+
+
+    /**
+     * @return Payload of the current line
+     */
+    public String getPayload()
+    {
+        return new String(payload, 0, payloadLength, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * @return Buffer holding the payload of the current line from index 0, valid until the next line
+     */
+    public byte[] getPayloadBuffer()
+    {
+        return payload;
+    }
+
+
+    /**
+     * @return Length in bytes of the payload of the current line
+     */
+    public int getPayloadLength()
+    {
+        return payloadLength;
+    }
+
+
+    /**
+     * Free the budget reserved by the current line, once its record has been published
+     */
+    public void freeLine()
+    {
+        if (budget != null) {
+            budget.free(reserved);
+        }
+        reserved = 0;
+        payloadLength = 0;
+        if (payload.length > RETAINED_PAYLOAD_SIZE) {
+            payload = new byte[INITIAL_PAYLOAD_SIZE];
+        }
+    }
+
+
+    /**
+     * @return Number of lines skipped because of their length
+     */
+    public long getSkippedLineCount()
+    {
+        return skippedLines;
+    }
+}
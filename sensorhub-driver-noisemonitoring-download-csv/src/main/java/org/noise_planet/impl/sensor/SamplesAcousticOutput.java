@@ -33,23 +33,26 @@
 package org.noise_planet.impl.sensor;
 
 import net.opengis.swe.v20.*;
-import org.sensorhub.api.sensor.SensorDataEvent;
-import org.sensorhub.impl.sensor.AbstractSensorOutput;
 import org.vast.swe.SWEHelper;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.*;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.DoublePredicate;
 
 
-public class SamplesAcousticOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+public class SamplesAcousticOutput extends AbstractHttpOutput
 {
+    // Bytes read from the response at once
+    private static final int CHUNK_SIZE = 65536;
+    // Size of the blob segment files
+    private static final long BLOB_SEGMENT_SIZE = 64L << 20;
     private DataComponent acousticData;
     private DataEncoding acousticEncoding;
-    private Timer timer;
+    // Payloads are written to the blob store and records only hold their reference
+    private boolean blobMode;
+    private volatile BlobStore blobStore;
 
     SamplesAcousticOutput(NoiseMonitoringSensor parentSensor)
     {
@@ -60,7 +63,7 @@ public class SamplesAcousticOutput extends AbstractSensorOutput<NoiseMonitoringS
     @Override
     public String getName()
     {
-        return "acoustic_samples";
+        return getParentModule().getOutputName("acoustic_samples");
     }
 
 
@@ -79,77 +82,114 @@ public class SamplesAcousticOutput extends AbstractSensorOutput<NoiseMonitoringS
         
         // add time, temperature, pressure, wind speed and wind direction fields
         acousticData.addComponent("time", fac.newTimeStampIsoUTC());
-        acousticData.addComponent("samples", fac.newText("samples", "samples", "Encrypted audio samples"));
+        blobMode = !getParentModule().getConfiguration().samplesBlobDirectory.isEmpty();
+        if (blobMode) {
+            acousticData.addComponent("size", fac.newQuantity(SWEHelper.getPropertyUri("Quantity"), "Size", "Length of the encrypted audio samples", "byte", DataType.INT));
+            acousticData.addComponent("hash", fac.newText(SWEHelper.getPropertyUri("Hash"), "Hash", "SHA-256 of the encrypted audio samples"));
+            acousticData.addComponent("blob", fac.newText(SWEHelper.getPropertyUri("Reference"), "Blob", "Segment file and offset of the encrypted audio samples in the blob directory"));
+        } else {
+            acousticData.addComponent("samples", fac.newText("samples", "samples", "Encrypted audio samples"));
+        }
 
         // also generate encoding definition
         acousticEncoding = fac.newTextEncoding(",", "\n");
     }
 
+    @Override
     public String getUrl() {
         return getParentModule().getConfiguration().httpSamplesAcousticStationUrl;
     }
     
-    private void sendMeasurement()
+    @Override
+    protected void readResponse(InputStream inputStream, String contentType) throws IOException
     {
+        NoiseMonitoringConfig config = getParentModule().getConfiguration();
+        InFlightBudget budget = getParentModule().getSampleBudget();
+        // a line longer than its share of the budget could wait forever for the lines read by the other threads
+        int maxLineLength = budget != null ? budget.getMaxLineLength() :
+                config.samplesMaxInFlightBytes / Math.max(1, config.fetchThreads);
+        // a line already received is dropped as soon as its time stamp is read
+        SampleLineReader reader = new SampleLineReader(inputStream, CHUNK_SIZE, budget, maxLineLength,
+                config.httpTimeout, new DoublePredicate() {
+                    @Override
+                    public boolean test(double time)
+                    {
+                        return isDuplicate(time);
+                    }
+                });
         try {
-            URL url = new URL(getUrl());
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(getParentModule().getConfiguration().httpTimeout);
-            conn.setRequestMethod("GET");
-            BufferedReader rd = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String line;
-            DataBlock dataBlock = acousticData.createDataBlock();
-            List<DataBlock> dataBlockList = new ArrayList<>();
-            while ((line = rd.readLine()) != null) {
-                StringTokenizer tokenizer = new StringTokenizer(line, ",");
-                dataBlock.setDoubleValue(0, Double.valueOf(tokenizer.nextToken()));
-                dataBlock.setStringValue(1, tokenizer.nextToken());
+            while (reader.nextLine()) {
+                // one block per line, the listeners may keep the published records
+                DataBlock dataBlock = acousticData.createDataBlock();
+                dataBlock.setDoubleValue(0, reader.getTime());
+                if (blobMode) {
+                    BlobStore store = blobStore;
+                    if (store == null) {
+                        throw new IOException("Blob store of " + getName() + " is not opened");
+                    }
+                    BlobStore.Blob blob = store.put(reader.getPayloadBuffer(), 0, reader.getPayloadLength());
+                    dataBlock.setIntValue(1, blob.getLength());
+                    dataBlock.setStringValue(2, blob.getHash());
+                    dataBlock.setStringValue(3, blob.getReference());
+                } else {
+                    dataBlock.setStringValue(1, reader.getPayload());
+                }
+                rowReceived(reader.getTime());
                 // Push block
-                dataBlockList.add(dataBlock);
+                publish(dataBlock);
             }
-            rd.close();
-            if(!dataBlockList.isEmpty()) {
-                // update latest record and send event
-                latestRecord = dataBlockList.get(dataBlockList.size() - 1);
-                latestRecordTime = (long)dataBlockList.get(dataBlockList.size() - 1).getDoubleValue(0);
-                eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(),
-                        SamplesAcousticOutput.this, dataBlockList.toArray(new DataBlock[dataBlockList.size()])));
+        } finally {
+            reader.freeLine();
+            if (reader.getSkippedLineCount() > 0) {
+                getParentModule().getLogger().warn("{} sample lines longer than {} bytes skipped",
+                        reader.getSkippedLineCount(), maxLineLength);
             }
-        } catch (IOException ex) {
-            parentSensor.getLogger().error("Error while receiving data", ex);
         }
     }
 
 
-    protected void start()
+    @Override
+    protected void openStorage() throws IOException
     {
-        if (timer != null || getUrl().isEmpty())
-            return;
-        timer = new Timer();
-        
-        // start main measurement generation thread
-        TimerTask task = new TimerTask() {
-            public void run()
-            {
-                sendMeasurement();
-            }            
-        };
-        
-        timer.scheduleAtFixedRate(task, 0, (long)(getAverageSamplingPeriod()*1000));        
+        if (blobMode && blobStore == null) {
+            blobStore = BlobStore.open(new File(getParentModule().getConfiguration().samplesBlobDirectory,
+                    getStorageName()), BLOB_SEGMENT_SIZE);
+        }
     }
 
 
     @Override
-    protected void stop()
+    protected void closeStorage() throws IOException
     {
-        if (timer != null)
-        {
-            timer.cancel();
-            timer = null;
+        BlobStore store = blobStore;
+        blobStore = null;
+        if (store != null) {
+            store.close();
         }
     }
 
 
+    /**
+     * Read the encrypted audio samples of a record published with a blob reference
+     * @param hash Value of the hash field of the record
+     * @return Read-only buffer of the samples, null if unknown or if the blob store is not opened
+     * @throws IOException If the blob can not be read
+     */
+    public ByteBuffer readSamples(String hash) throws IOException
+    {
+        BlobStore store = blobStore;
+        return store == null ? null : store.read(hash);
+    }
+
+
+    @Override
+    protected double getRowResolution()
+    {
+        // time stamps in seconds with a decimal part, sample lines are at least 1 s apart
+        return 0.5;
+    }
+
+
     @Override
     public double getAverageSamplingPeriod()
     {
@@ -36,27 +36,22 @@ import net.opengis.swe.v20.DataBlock;
 import net.opengis.swe.v20.DataComponent;
 import net.opengis.swe.v20.DataEncoding;
 import net.opengis.swe.v20.DataType;
-import org.sensorhub.api.sensor.SensorDataEvent;
-import org.sensorhub.impl.sensor.AbstractSensorOutput;
 import org.vast.swe.SWEHelper;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.Consumer;
 
 
-public class StateOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+public class StateOutput extends AbstractHttpOutput
 {
     private DataComponent stateData;
     private DataEncoding stateEncoding;
-    private Timer timer;
 
     StateOutput(NoiseMonitoringSensor parentSensor)
     {
@@ -67,7 +62,7 @@ public class StateOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
     @Override
     public String getName()
     {
-        return "state";
+        return getParentModule().getOutputName("state");
     }
 
 
@@ -91,80 +86,59 @@ public class StateOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
         stateEncoding = fac.newTextEncoding(",", "\n");
     }
 
-    public List<DataBlock> parseResult(BufferedReader rd) throws IOException {
-        List<DataBlock> dataBlockList = new ArrayList<>();
+    /**
+     * Parse the rows and give each record to the consumer as soon as its row has been read
+     * @param rd CSV rows
+     * @param consumer Receives the records
+     * @throws IOException On read error
+     */
+    public void parseResult(BufferedReader rd, Consumer<DataBlock> consumer) throws IOException {
         String line;
         while ((line = rd.readLine()) != null) {
             StringTokenizer tokenizer = new StringTokenizer(line, ",");
-            DataBlock dataBlock = stateData.createDataBlock();
             // Time UTC
-            dataBlock.setDoubleValue(0, Long.valueOf(tokenizer.nextToken()));
+            long time = Long.valueOf(tokenizer.nextToken());
+            if (isDuplicate(time)) {
+                // already received, the values are not parsed
+                continue;
+            }
+            DataBlock dataBlock = stateData.createDataBlock();
+            dataBlock.setDoubleValue(0, time);
             // battery_level
             dataBlock.setFloatValue(1, Float.valueOf(tokenizer.nextToken()));
             // missed_leq
             dataBlock.setIntValue(2, Integer.valueOf(tokenizer.nextToken()));
             // missed_spectrum
             dataBlock.setIntValue(3, Integer.valueOf(tokenizer.nextToken()));
-            dataBlockList.add(dataBlock);
+            // a malformed row does not move the cursor, it is received again once corrected
+            rowReceived(time);
+            consumer.accept(dataBlock);
         }
+    }
+
+    public List<DataBlock> parseResult(BufferedReader rd) throws IOException {
+        List<DataBlock> dataBlockList = new ArrayList<>();
+        parseResult(rd, dataBlockList::add);
         return dataBlockList;
     }
 
+    @Override
     public String getUrl() {
         return getParentModule().getConfiguration().httpStateStationUrl;
     }
 
-    private void sendMeasurement()
-    {
-        try {
-            URL url = new URL(getUrl());
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(getParentModule().getConfiguration().httpTimeout);
-            conn.setRequestMethod("GET");
-            BufferedReader rd = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            List<DataBlock> dataBlockList = parseResult(rd);
-            rd.close();
-            if(!dataBlockList.isEmpty()) {
-                // update latest record and send event
-                latestRecord = dataBlockList.get(dataBlockList.size() - 1);
-                latestRecordTime = (long)dataBlockList.get(dataBlockList.size() - 1).getDoubleValue(0);
-                eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(),
-                        StateOutput.this, dataBlockList.toArray(new DataBlock[dataBlockList.size()])));
-            }
-        } catch (IOException ex) {
-            parentSensor.getLogger().error("Error while receiving data", ex);
-        }
-
-
-    }
-
-
-    protected void start()
+    @Override
+    protected void readResponse(InputStream inputStream, String contentType) throws IOException
     {
-        if (timer != null || getUrl().isEmpty())
-            return;
-        timer = new Timer();
-        
-        // start main measurement generation thread
-        TimerTask task = new TimerTask() {
-            public void run()
-            {
-                sendMeasurement();
-            }            
-        };
-        
-        timer.scheduleAtFixedRate(task, 0, (long)(getAverageSamplingPeriod()*1000));        
+        parseResult(new BufferedReader(new InputStreamReader(inputStream)), recordPublisher);
     }
 
 
     @Override
-    protected void stop()
+    protected double getRowResolution()
     {
-        if (timer != null)
-        {
-            timer.cancel();
-            timer = null;
-        }
+        // time stamps are in milliseconds
+        return 1000;
     }
 
 
@@ -0,0 +1,177 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+
+/**
+ * <p>
+ * Keep a long-lived connection open on the station endpoint of an output and parse the rows as the station
+ * emits them, in chunked CSV, binary frames or server-sent events. Records are published as soon as they are complete.
+ * The connection is reopened after an error or the end of the stream, resuming after the last received row,
+ * with a delay growing from 1 s to 1 min while the station is unreachable.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class StreamingClient implements Runnable
+{
+    static final long MIN_RECONNECT_DELAY = 1000;
+    static final long MAX_RECONNECT_DELAY = 60000;
+
+    private final AbstractHttpOutput output;
+    private volatile boolean running = false;
+    private volatile Thread thread;
+    private volatile HttpURLConnection connection;
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+
+    StreamingClient(AbstractHttpOutput output)
+    {
+        this.output = output;
+    }
+
+
+    void start()
+    {
+        running = true;
+        thread = new Thread(this, "noisemonitoring-stream-" + output.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Close the connection and interrupt the stream thread, see {@link #awaitTermination}
+     */
+    void stop()
+    {
+        running = false;
+        Thread streamThread = thread;
+        if (streamThread == null) {
+            return;
+        }
+        HttpURLConnection streamConnection = connection;
+        if (streamConnection != null) {
+            // unblock the read
+            streamConnection.disconnect();
+        }
+        // the thread may still be connecting, it stops by itself once connected
+        streamThread.interrupt();
+    }
+
+
+    /**
+     * Wait for the end of the stream thread after {@link #stop()}
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if the thread has ended
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean awaitTermination(long timeout) throws InterruptedException
+    {
+        Thread streamThread = thread;
+        if (streamThread == null) {
+            return true;
+        }
+        streamThread.join(timeout);
+        return !streamThread.isAlive();
+    }
+
+
+    /**
+     * @return True while the stream thread is running
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+
+    @Override
+    public void run()
+    {
+        while (running) {
+            HttpFetchEngine fetchEngine = output.getParentModule().getFetchEngine();
+            if (fetchEngine == null) {
+                return;
+            }
+            NoiseMonitoringConfig config = output.getParentModule().getConfiguration();
+            final double cursor = output.getCursor();
+            final long requestTime = System.nanoTime();
+            try {
+                fetchEngine.stream(output.getStreamUrl(), config.streamTimeout, output.getStreamedContentTypes(),
+                        new HttpFetchEngine.ResponseHandler() {
+                            @Override
+                            public void onResponse(HttpURLConnection conn, InputStream inputStream) throws IOException
+                            {
+                                connection = conn;
+                                if (!running) {
+                                    return;
+                                }
+                                String contentType = conn.getContentType();
+                                if (contentType != null && contentType.startsWith(EventStreamInputStream.CONTENT_TYPE)) {
+                                    inputStream = new EventStreamInputStream(inputStream);
+                                    contentType = "text/csv";
+                                }
+                                output.parseResponse(inputStream, contentType, System.nanoTime() - requestTime);
+                            }
+                        });
+                output.getParentModule().getLogger().debug("End of {} stream", output.getName());
+            } catch (IOException | RuntimeException ex) {
+                if (running) {
+                    output.getMetrics().requestFailed();
+                    output.getParentModule().getLogger().warn("Error on {} stream: {}", output.getName(),
+                            ex.getMessage());
+                }
+            } finally {
+                connection = null;
+            }
+            if (!running) {
+                return;
+            }
+            // rows have been received, the station is reachable
+            double newCursor = output.getCursor();
+            if (!Double.isNaN(newCursor) && !(newCursor == cursor)) {
+                reconnectDelay = MIN_RECONNECT_DELAY;
+            }
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            reconnectDelay = Math.min(MAX_RECONNECT_DELAY, reconnectDelay * 2);
+        }
+    }
+}
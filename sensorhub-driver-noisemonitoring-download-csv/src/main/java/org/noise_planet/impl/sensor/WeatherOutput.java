@@ -33,24 +33,21 @@
 package org.noise_planet.impl.sensor;
 
 import net.opengis.swe.v20.*;
-import org.sensorhub.impl.sensor.AbstractSensorOutput;
-import org.sensorhub.api.sensor.SensorDataEvent;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.*;
+import java.util.function.Consumer;
 
 import org.vast.swe.SWEHelper;
 
 
-public class WeatherOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
+public class WeatherOutput extends AbstractHttpOutput
 {
     private DataComponent weatherData;
     private DataEncoding weatherEncoding;
-    private Timer timer;
 
     WeatherOutput(NoiseMonitoringSensor parentSensor)
     {
@@ -61,7 +58,7 @@ public class WeatherOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
     @Override
     public String getName()
     {
-        return "weather";
+        return getParentModule().getOutputName("weather");
     }
 
 
@@ -85,80 +82,59 @@ public class WeatherOutput extends AbstractSensorOutput<NoiseMonitoringSensor>
         weatherEncoding = fac.newTextEncoding(",", "\n");
     }
 
-    public List<DataBlock> parseResult(BufferedReader rd) throws IOException {
-        List<DataBlock> dataBlockList = new ArrayList<>();
+    /**
+     * Parse the rows and give each record to the consumer as soon as its row has been read
+     * @param rd CSV rows
+     * @param consumer Receives the records
+     * @throws IOException On read error
+     */
+    public void parseResult(BufferedReader rd, Consumer<DataBlock> consumer) throws IOException {
         String line;
         while ((line = rd.readLine()) != null) {
             StringTokenizer tokenizer = new StringTokenizer(line, ",");
-            DataBlock dataBlock = weatherData.createDataBlock();
             // Time UTC
-            dataBlock.setDoubleValue(0, Long.valueOf(tokenizer.nextToken()));
+            long time = Long.valueOf(tokenizer.nextToken());
+            if (isDuplicate(time)) {
+                // already received, the values are not parsed
+                continue;
+            }
+            DataBlock dataBlock = weatherData.createDataBlock();
+            dataBlock.setDoubleValue(0, time);
             // Temp in
             dataBlock.setFloatValue(1, Float.valueOf(tokenizer.nextToken()));
             // Temp out
             dataBlock.setFloatValue(2, Float.valueOf(tokenizer.nextToken()));
             // Humidity
             dataBlock.setFloatValue(3, Float.valueOf(tokenizer.nextToken()));
-            dataBlockList.add(dataBlock);
+            // a malformed row does not move the cursor, it is received again once corrected
+            rowReceived(time);
+            consumer.accept(dataBlock);
         }
+    }
+
+    public List<DataBlock> parseResult(BufferedReader rd) throws IOException {
+        List<DataBlock> dataBlockList = new ArrayList<>();
+        parseResult(rd, dataBlockList::add);
         return dataBlockList;
     }
 
+    @Override
     public String getUrl() {
         return getParentModule().getConfiguration().httpWeatherStationUrl;
     }
 
-    private void sendMeasurement()
-    {
-        try {
-            URL url = new URL(getUrl());
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(getParentModule().getConfiguration().httpTimeout);
-            conn.setRequestMethod("GET");
-            BufferedReader rd = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            List<DataBlock> dataBlockList = parseResult(rd);
-            rd.close();
-            if(!dataBlockList.isEmpty()) {
-                // update latest record and send event
-                latestRecord = dataBlockList.get(dataBlockList.size() - 1);
-                latestRecordTime = (long)dataBlockList.get(dataBlockList.size() - 1).getDoubleValue(0);
-                eventHandler.publishEvent(new SensorDataEvent(System.currentTimeMillis(),
-                        WeatherOutput.this, dataBlockList.toArray(new DataBlock[dataBlockList.size()])));
-            }
-        } catch (IOException ex) {
-            parentSensor.getLogger().error("Error while receiving data", ex);
-        }
-
-
-    }
-
-
-    protected void start()
+    @Override
+    protected void readResponse(InputStream inputStream, String contentType) throws IOException
     {
-        if (timer != null || getUrl().isEmpty())
-            return;
-        timer = new Timer();
-        
-        // start main measurement generation thread
-        TimerTask task = new TimerTask() {
-            public void run()
-            {
-                sendMeasurement();
-            }            
-        };
-        
-        timer.scheduleAtFixedRate(task, 0, (long)(getAverageSamplingPeriod()*1000));        
+        parseResult(new BufferedReader(new InputStreamReader(inputStream)), recordPublisher);
     }
 
 
     @Override
-    protected void stop()
+    protected double getRowResolution()
     {
-        if (timer != null)
-        {
-            timer.cancel();
-            timer = null;
-        }
+        // time stamps are in milliseconds
+        return 1000;
     }
 
 
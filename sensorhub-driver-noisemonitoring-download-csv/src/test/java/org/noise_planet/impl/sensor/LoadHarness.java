@@ -0,0 +1,249 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import org.sensorhub.api.common.SensorHubException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ * Start one {@link NoiseMonitoringSensor} per simulated station and measure how the hub keeps up: rows per second
+ * ingested, delay between the station clock and the newest fast acoustic row received, threads and heap.
+ * Run {@link #main(String[])} with the number of stations and the duration in seconds to size a hub.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class LoadHarness
+{
+    private final StationSimulator simulator;
+    private final Consumer<NoiseMonitoringConfig> configurator;
+    private final List<NoiseMonitoringSensor> sensors = new ArrayList<>();
+
+    /**
+     * @param simulator Stations to poll
+     * @param configurator Called on the configuration of each sensor, after the urls have been set
+     */
+    public LoadHarness(StationSimulator simulator, Consumer<NoiseMonitoringConfig> configurator)
+    {
+        this.simulator = simulator;
+        this.configurator = configurator;
+    }
+
+    /**
+     * @return One sensor per station, in the station order, once {@link #run(long, long)} has been called
+     */
+    public List<NoiseMonitoringSensor> getSensors()
+    {
+        return sensors;
+    }
+
+    /**
+     * Start the sensors, poll the stations for the given duration then stop the sensors
+     * @param duration Duration of the run in ms
+     * @param samplingPeriod Time in ms between two measures of lag, threads and heap
+     * @return Measures of the run
+     */
+    public Report run(long duration, long samplingPeriod) throws SensorHubException, InterruptedException
+    {
+        sensors.clear();
+        for (int i = 0; i < simulator.getStationCount(); i++) {
+            NoiseMonitoringConfig config = new NoiseMonitoringConfig();
+            config.id = UUID.randomUUID().toString();
+            config.serialNumber = "SIMULATOR-" + i;
+            config.httpFastAcousticStationUrl = simulator.getUrl(i, StationSimulator.FAST);
+            config.httpSlowAcousticStationUrl = simulator.getUrl(i, StationSimulator.SLOW);
+            config.httpWeatherStationUrl = simulator.getUrl(i, StationSimulator.WEATHER);
+            config.httpStateStationUrl = simulator.getUrl(i, StationSimulator.STATE);
+            config.httpSamplesAcousticStationUrl = simulator.getUrl(i, StationSimulator.SAMPLES);
+            configurator.accept(config);
+            NoiseMonitoringSensor sensor = new NoiseMonitoringSensor();
+            sensor.init(config);
+            sensors.add(sensor);
+        }
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        Report report = new Report(sensors.size());
+        long servedRows = simulator.getServedRows();
+        long servedBytes = simulator.getServedBytes();
+        long start = System.currentTimeMillis();
+        for (NoiseMonitoringSensor sensor : sensors) {
+            sensor.start();
+        }
+        try {
+            long end = start + duration;
+            long now;
+            while ((now = System.currentTimeMillis()) < end) {
+                Thread.sleep(Math.min(samplingPeriod, end - now));
+                report.sample(sensors, threadMXBean.getThreadCount(), runtime.totalMemory() - runtime.freeMemory());
+            }
+            report.schedulerState = String.valueOf(sensors.isEmpty() ? null : sensors.get(0).getScheduler());
+            report.fetchEngineState = String.valueOf(sensors.isEmpty() ? null : sensors.get(0).getFetchEngine());
+        } finally {
+            for (NoiseMonitoringSensor sensor : sensors) {
+                sensor.stop();
+            }
+        }
+        report.duration = System.currentTimeMillis() - start;
+        report.rows = simulator.getServedRows() - servedRows;
+        report.bytes = simulator.getServedBytes() - servedBytes;
+        return report;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int stationCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        long duration = TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 60);
+        StationSimulator simulator = new StationSimulator(stationCount, 16);
+        try {
+            // every station comes back from a 15 minutes outage
+            simulator.addBacklog(TimeUnit.MINUTES.toMillis(15));
+            LoadHarness harness = new LoadHarness(simulator, new Consumer<NoiseMonitoringConfig>() {
+                @Override
+                public void accept(NoiseMonitoringConfig config) {
+                }
+            });
+            System.out.println(harness.run(duration, 1000));
+        } finally {
+            simulator.close();
+        }
+    }
+
+
+    /**
+     * Measures of a run
+     */
+    public static class Report
+    {
+        private final int stations;
+        private long duration;
+        private long rows;
+        private long bytes;
+        private double maximumLag = 0;
+        private double lagSum = 0;
+        private long lagCount = 0;
+        private int stationsWithoutData;
+        private int peakThreads = 0;
+        private long peakHeap = 0;
+        private String schedulerState;
+        private String fetchEngineState;
+
+        Report(int stations)
+        {
+            this.stations = stations;
+        }
+
+        void sample(List<NoiseMonitoringSensor> sensors, int threads, long heap)
+        {
+            double now = System.currentTimeMillis() / 1000.0;
+            int withoutData = 0;
+            for (NoiseMonitoringSensor sensor : sensors) {
+                double cursor = sensor.fastAcousticDataInterface.getCursor();
+                if (Double.isNaN(cursor)) {
+                    withoutData++;
+                } else {
+                    double lag = now - cursor;
+                    maximumLag = Math.max(maximumLag, lag);
+                    lagSum += lag;
+                    lagCount++;
+                }
+            }
+            stationsWithoutData = withoutData;
+            peakThreads = Math.max(peakThreads, threads);
+            peakHeap = Math.max(peakHeap, heap);
+        }
+
+        /**
+         * @return Number of rows of all the endpoints sent to the hub during the run
+         */
+        public long getRows()
+        {
+            return rows;
+        }
+
+        public double getRowsPerSecond()
+        {
+            return duration > 0 ? rows * 1000.0 / duration : 0;
+        }
+
+        /**
+         * @return Maximum delay in seconds between the station clock and the newest fast acoustic row received
+         */
+        public double getMaximumLag()
+        {
+            return maximumLag;
+        }
+
+        public double getAverageLag()
+        {
+            return lagCount > 0 ? lagSum / lagCount : Double.NaN;
+        }
+
+        /**
+         * @return Number of stations without any fast acoustic row received at the last measure
+         */
+        public int getStationsWithoutData()
+        {
+            return stationsWithoutData;
+        }
+
+        public int getPeakThreads()
+        {
+            return peakThreads;
+        }
+
+        public long getPeakHeap()
+        {
+            return peakHeap;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%d stations during %.1f s: %d rows (%.0f rows/s), %.1f MB received," +
+                            " lag avg %.2f s max %.2f s, %d stations without data, peak threads %d," +
+                            " peak heap %.1f MB%n%s%n%s", stations, duration / 1000.0, rows, getRowsPerSecond(),
+                    bytes / 1e6, getAverageLag(), maximumLag, stationsWithoutData, peakThreads, peakHeap / 1e6,
+                    schedulerState, fetchEngineState);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar Wi6labs LS2N
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.impl.sensor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * <p>
+ * Emulate a fleet of stations on the JDK embedded http server. Each station serves the fast, slow, weather, state
+ * and samples endpoints under /station&lt;index&gt;/ and generates rows at the station rates, using the wall clock.
+ * The all endpoint returns the rows of every stream in one response, in the {@link MultiplexedResponseReader} format.
+ * A station keeps the time of the last row it has sent, so a poll returns every row generated since the previous
+ * one. Backlog bursts, slow responses and outages can be set for each station.
+ * </p>
+ * <p>
+ * The {@link NoiseMonitoringConfig#cursorParameter since} and {@link NoiseMonitoringConfig#pageSizeParameter limit}
+ * parameters, gzip compression and the binary frame format are supported as a real station does.
+ * </p>
+ *
+ * @author Nicolas Fortin, UMRAE Ifsttar
+ */
+public class StationSimulator implements Closeable
+{
+    public static final String FAST = "fast";
+    public static final String SLOW = "slow";
+    public static final String WEATHER = "weather";
+    public static final String STATE = "state";
+    public static final String SAMPLES = "samples";
+    // Combined endpoint, returning a section per stream
+    public static final String ALL = "all";
+    // Size of the encrypted audio samples sent in each samples row
+    private static final int SAMPLES_SIZE = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Station[] stations;
+
+    /**
+     * Start the stations
+     * @param stationCount Number of stations
+     * @param threads Number of http server threads
+     * @throws IOException If the server can not be started
+     */
+    public StationSimulator(int stationCount, int threads) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "station-simulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        stations = new Station[stationCount];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < stationCount; i++) {
+            stations[i] = new Station(now);
+            for (Endpoint endpoint : stations[i].endpoints.values()) {
+                server.createContext("/station" + i + "/" + endpoint.name, endpoint);
+            }
+        }
+        server.start();
+    }
+
+    public int getStationCount()
+    {
+        return stations.length;
+    }
+
+    public Station getStation(int index)
+    {
+        return stations[index];
+    }
+
+    /**
+     * @param station Station index
+     * @param endpoint One of {@link #FAST}, {@link #SLOW}, {@link #WEATHER}, {@link #STATE}, {@link #SAMPLES}, {@link #ALL}
+     * @return Url of the station endpoint
+     */
+    public String getUrl(int station, String endpoint)
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/station" + station + "/" + endpoint;
+    }
+
+    /**
+     * Simulate stations coming back from an outage
+     * @param duration Duration in ms of the rows each station has not sent yet
+     */
+    public void addBacklog(long duration)
+    {
+        for (Station station : stations) {
+            station.addBacklog(duration);
+        }
+    }
+
+    /**
+     * @return Number of rows sent by all the stations
+     */
+    public long getServedRows()
+    {
+        long rows = 0;
+        for (Station station : stations) {
+            rows += station.getServedRows();
+        }
+        return rows;
+    }
+
+    /**
+     * @return Number of response body bytes sent by all the stations
+     */
+    public long getServedBytes()
+    {
+        long bytes = 0;
+        for (Station station : stations) {
+            bytes += station.getServedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * One emulated station
+     */
+    public static class Station
+    {
+        private final Map<String, Endpoint> endpoints = new HashMap<>();
+        private volatile long responseDelay = 0;
+        private volatile boolean outage = false;
+        private final AtomicLong servedRows = new AtomicLong(0);
+        private final AtomicLong servedBytes = new AtomicLong(0);
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+
+        Station(long now)
+        {
+            addEndpoint(new Endpoint(this, FAST, 125, false, now));
+            addEndpoint(new Endpoint(this, SLOW, 1000, false, now));
+            addEndpoint(new Endpoint(this, WEATHER, 60000, true, now));
+            addEndpoint(new Endpoint(this, STATE, 60000, true, now));
+            addEndpoint(new Endpoint(this, SAMPLES, 10000, false, now));
+            final Endpoint[] streams = endpoints.values().toArray(new Endpoint[0]);
+            addEndpoint(new Endpoint(this, ALL, 1, false, now) {
+                @Override
+                int writeBody(OutputStream outputStream, Map<String, String> query, boolean binary) throws IOException
+                {
+                    int rows = 0;
+                    for (Endpoint stream : streams) {
+                        outputStream.write(("#" + stream.name + "\n").getBytes(StandardCharsets.UTF_8));
+                        rows += stream.writeBody(outputStream, query, false);
+                    }
+                    return rows;
+                }
+
+                @Override
+                void moveBack(long duration)
+                {
+                }
+            });
+        }
+
+        private void addEndpoint(Endpoint endpoint)
+        {
+            endpoints.put(endpoint.name, endpoint);
+        }
+
+        /**
+         * @param responseDelay Time in ms the station waits before answering
+         */
+        public void setResponseDelay(long responseDelay)
+        {
+            this.responseDelay = responseDelay;
+        }
+
+        /**
+         * @param outage True to answer 503 to every request, rows generated meanwhile are sent after the outage
+         */
+        public void setOutage(boolean outage)
+        {
+            this.outage = outage;
+        }
+
+        /**
+         * @param duration Duration in ms of the rows the station has not sent yet
+         */
+        public void addBacklog(long duration)
+        {
+            for (Endpoint endpoint : endpoints.values()) {
+                endpoint.moveBack(duration);
+            }
+        }
+
+        public long getServedRows()
+        {
+            return servedRows.get();
+        }
+
+        public long getServedBytes()
+        {
+            return servedBytes.get();
+        }
+
+        public long getRequestCount()
+        {
+            return requests.get();
+        }
+
+        public long getFailureCount()
+        {
+            return failures.get();
+        }
+    }
+
+
+    private static class Endpoint implements HttpHandler
+    {
+        private final Station station;
+        private final String name;
+        private final long period;
+        // weather and state rows are stamped in ms, acoustic rows in seconds
+        private final boolean millisecondTime;
+        private final Random random = new Random();
+        // Time in ms of the last row sent
+        private long servedUntil;
+
+        Endpoint(Station station, String name, long period, boolean millisecondTime, long now)
+        {
+            this.station = station;
+            this.name = name;
+            this.period = period;
+            this.millisecondTime = millisecondTime;
+            this.servedUntil = now;
+        }
+
+        synchronized void moveBack(long duration)
+        {
+            servedUntil -= duration;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            station.requests.incrementAndGet();
+            try {
+                if (station.outage) {
+                    station.failures.incrementAndGet();
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                long delay = station.responseDelay;
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                String accept = exchange.getRequestHeaders().getFirst("Accept");
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean binary = accept != null && accept.contains(AcousticFrameReader.CONTENT_TYPE) &&
+                        (FAST.equals(name) || SLOW.equals(name));
+                boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                OutputStream outputStream = gzip ? new GZIPOutputStream(body) : body;
+                int rows = writeBody(outputStream, query, binary);
+                outputStream.close();
+                exchange.getResponseHeaders().set("Content-Type", binary ? AcousticFrameReader.CONTENT_TYPE : "text/csv");
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.size() == 0 ? -1 : body.size());
+                body.writeTo(exchange.getResponseBody());
+                station.servedRows.addAndGet(rows);
+                station.servedBytes.addAndGet(body.size());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        int writeBody(OutputStream outputStream, Map<String, String> query, boolean binary) throws IOException
+        {
+            return writeRows(outputStream, query, binary);
+        }
+
+        private synchronized int writeRows(OutputStream outputStream, Map<String, String> query, boolean binary)
+                throws IOException
+        {
+            long from = servedUntil;
+            String since = query.get("since");
+            if (since != null) {
+                from = millisecondTime ? Long.parseLong(since) : Math.round(Double.parseDouble(since) * 1000);
+            }
+            String limit = query.get("limit");
+            long maxRows = limit != null ? Long.parseLong(limit) : Long.MAX_VALUE;
+            long first = (from / period + 1) * period;
+            long now = System.currentTimeMillis();
+            int rows = first > now ? 0 : (int) Math.min(maxRows, (now - first) / period + 1);
+            if (binary) {
+                writeFrames(outputStream, first, rows);
+            } else {
+                Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+                StringBuilder sb = new StringBuilder();
+                for (int row = 0; row < rows; row++) {
+                    writeRow(sb, first + row * period);
+                    if (sb.length() > 8192) {
+                        writer.append(sb);
+                        sb.setLength(0);
+                    }
+                }
+                writer.append(sb);
+                writer.flush();
+            }
+            if (rows > 0) {
+                servedUntil = Math.max(servedUntil, first + (rows - 1) * period);
+            }
+            return rows;
+        }
+
+        private void writeRow(StringBuilder sb, long time)
+        {
+            double leq = 55 + random.nextGaussian() * 8;
+            switch (name) {
+                case FAST:
+                    appendDecimal(sb, time, 3).append(',');
+                    appendDecimal(sb, Math.round(leq * 100), 2).append(',');
+                    appendDecimal(sb, Math.round((leq - 6) * 100), 2);
+                    for (int band = 0; band < FastAcousticOutput.freqs.length; band++) {
+                        sb.append(',');
+                        appendDecimal(sb, Math.round((leq - 15 + random.nextGaussian() * 6) * 100), 2);
+                    }
+                    break;
+                case SLOW:
+                    appendDecimal(sb, time, 3).append(',');
+                    appendDecimal(sb, Math.round(leq * 100), 2).append(',');
+                    appendDecimal(sb, Math.round((leq - 6) * 100), 2);
+                    break;
+                case WEATHER:
+                    double temperature = 20 + random.nextGaussian() * 5;
+                    sb.append(time).append(',');
+                    appendDecimal(sb, Math.round((temperature + 30) * 100), 2).append(',');
+                    appendDecimal(sb, Math.round(temperature * 100), 2).append(',');
+                    appendDecimal(sb, Math.round((40 + random.nextDouble() * 50) * 10), 1);
+                    break;
+                case STATE:
+                    sb.append(time).append(',');
+                    appendDecimal(sb, Math.round((80 + random.nextDouble() * 20) * 100), 2).append(',');
+                    sb.append(random.nextInt(3)).append(',').append(random.nextInt(3));
+                    break;
+                default:
+                    byte[] samples = new byte[SAMPLES_SIZE];
+                    random.nextBytes(samples);
+                    appendDecimal(sb, time, 3).append(',');
+                    sb.append(Base64.getEncoder().encodeToString(samples));
+                    break;
+            }
+            sb.append('\n');
+        }
+
+        /**
+         * Write a fixed point value, String.format would make the simulator slower than the driver
+         */
+        private static StringBuilder appendDecimal(StringBuilder sb, long value, int decimals)
+        {
+            if (value < 0) {
+                sb.append('-');
+                value = -value;
+            }
+            long scale = decimals == 3 ? 1000 : decimals == 2 ? 100 : 10;
+            sb.append(value / scale).append('.');
+            String fraction = Long.toString(value % scale + scale);
+            return sb.append(fraction, 1, fraction.length());
+        }
+
+        private void writeFrames(OutputStream outputStream, long first, int rows) throws IOException
+        {
+            int columns = FAST.equals(name) ? FastAcousticOutput.freqs.length + 2 : 2;
+            AcousticFrameWriter writer = new AcousticFrameWriter(outputStream, columns);
+            float[] values = new float[columns];
+            for (int row = 0; row < rows; row++) {
+                double leq = 55 + random.nextGaussian() * 8;
+                values[0] = (float) leq;
+                values[1] = (float) (leq - 6);
+                for (int band = 2; band < columns; band++) {
+                    values[band] = (float) (leq - 15 + random.nextGaussian() * 6);
+                }
+                writer.writeFrame((first + row * period) / 1000.0, values);
+            }
+        }
+
+        private static Map<String, String> parseQuery(String query)
+        {
+            Map<String, String> parameters = new HashMap<>();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int separator = parameter.indexOf('=');
+                    if (separator > 0) {
+                        parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+                    }
+                }
+            }
+            return parameters;
+        }
+    }
+}
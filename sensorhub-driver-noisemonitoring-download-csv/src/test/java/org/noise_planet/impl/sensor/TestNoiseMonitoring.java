@@ -32,6 +32,9 @@
 */
 package org.noise_planet.impl.sensor;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import net.opengis.swe.v20.DataBlock;
 import org.junit.After;
 import org.junit.Before;
@@ -39,14 +42,56 @@ import org.junit.Test;
 import org.sensorhub.api.common.SensorHubException;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 public class TestNoiseMonitoring
@@ -66,6 +111,7 @@ public class TestNoiseMonitoring
         config.slowValuesPerDataRecord = SLOW_COUNT_IN_DATARECORD;
         config.fastValuesPerDataRecord = FAST_COUNT_IN_DATARECORD;
         config.httpWeatherStationUrl = "";
+        config.httpSamplesAcousticStationUrl = "";
         config.id = UUID.randomUUID().toString();
         
         driver = new NoiseMonitoringSensor();
@@ -86,11 +132,10 @@ public class TestNoiseMonitoring
                 "1528448320.719,11.83,7.46,1.32,4.02,9.32,-3.58,-9.77,-10.44,-15.88,-18.90,-15.37,-16.49,-15.30,-8.05,-10.10,-15.85,-17.05,-15.65,-16.66,-18.33,-16.72,-18.17,-17.69,-17.69,-16.72,-16.44,-15.93,-14.21,-13.64,-12.77,-12.10\n" +
                 "1528448320.844,7.82,0.32,-4.42,-3.70,-4.20,-7.12,-9.31,-7.50,-13.02,-16.12,-10.22,-14.64,-14.39,-7.48,-9.73,-16.43,-17.78,-17.82,-17.38,-19.41,-18.07,-17.50,-18.49,-16.43,-15.25,-15.48,-14.62,-14.56,-13.71,-12.38,-12.06\n" +
                 "1528448320.970,4.40,-2.75,-11.35,-10.46,-10.40,-8.27,-14.47,-11.24,-15.45,-16.20,-10.49,-18.12,-16.95,-9.73,-9.38,-18.09,-17.99,-18.27,-17.47,-19.10,-17.90,-16.97,-17.72,-16.44,-15.67,-15.25,-15.37,-14.32,-13.49,-12.97,-11.94\n";
-        List<String> fastResults = new ArrayList<>(Arrays.asList(dataStr.split("\n")));
-        assertEquals(10, fastResults.size());
-        List<DataBlock> data = driver.fastAcousticDataInterface.parseResult(fastResults);
+        List<DataBlock> data = driver.fastAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(dataStr.getBytes(StandardCharsets.UTF_8))));
         assertEquals(10 / FAST_COUNT_IN_DATARECORD, data.size());
-        assertEquals(10 % FAST_COUNT_IN_DATARECORD, fastResults.size());
+        assertEquals(10 % FAST_COUNT_IN_DATARECORD, driver.fastAcousticDataInterface.getPendingRowCount());
         DataBlock dataBlock = data.get(0);
         // Time
         assertEquals(1528448319.844, dataBlock.getDoubleValue(0), 1e-2);
@@ -104,6 +149,852 @@ public class TestNoiseMonitoring
         assertEquals(-1.37, dataBlock.getDoubleValue(FAST_COUNT_IN_DATARECORD + 3), 1e-2);
     }
 
+    @Test
+    public void testParseAcousticFastSameAsTokenizer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(1528448319L);
+        for(int row = 0; row < FAST_COUNT_IN_DATARECORD * 3; row++) {
+            sb.append(String.format(Locale.ROOT, "%.3f", 1528448319.844 + row * 0.125));
+            for(int column = 0; column < FastAcousticOutput.freqs.length + 2; column++) {
+                sb.append(String.format(Locale.ROOT, ",%.2f", random.nextGaussian() * 30));
+            }
+            sb.append("\r\n");
+        }
+        String[] lines = sb.toString().split("\r\n");
+        // tiny buffer in order to cover the refill of partial lines
+        List<DataBlock> data = driver.fastAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), 16));
+        assertEquals(3, data.size());
+        for(int row = 0; row < lines.length; row++) {
+            DataBlock dataBlock = data.get(row / FAST_COUNT_IN_DATARECORD);
+            StringTokenizer tokenizer = new StringTokenizer(lines[row], ",");
+            double time = Double.valueOf(tokenizer.nextToken());
+            if(row % FAST_COUNT_IN_DATARECORD == 0) {
+                assertEquals(time, dataBlock.getDoubleValue(0), 0);
+            }
+            for(int column = 0; column < FastAcousticOutput.freqs.length + 2; column++) {
+                assertEquals(Float.valueOf(tokenizer.nextToken()),
+                        dataBlock.getFloatValue(1 + column * FAST_COUNT_IN_DATARECORD + row % FAST_COUNT_IN_DATARECORD), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testParseAcousticSlowStreaming() throws Exception {
+        // the first record must be published while the response is still being received
+        final PipedOutputStream station = new PipedOutputStream();
+        final PipedInputStream response = new PipedInputStream(station);
+        final BlockingQueue<DataBlock> records = new LinkedBlockingQueue<>();
+        Thread parser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    driver.slowAcousticDataInterface.parseResult(new CsvByteReader(response), records::add);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        parser.start();
+        for(int row = 0; row < SLOW_COUNT_IN_DATARECORD + 1; row++) {
+            station.write(((1531405786 + row) + ",47.27,40.60\n").getBytes(StandardCharsets.UTF_8));
+        }
+        station.flush();
+        DataBlock first = records.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals(1531405786, first.getDoubleValue(0), 0);
+        station.close();
+        parser.join(10000);
+        assertTrue(records.isEmpty());
+        assertEquals(1, driver.slowAcousticDataInterface.getPendingRowCount());
+    }
+
+    @Test
+    public void testParseAcousticFastBinarySameAsCsv() throws IOException {
+        // the same rows are parsed in both formats
+        config.deduplicateRows = false;
+        final int columns = FastAcousticOutput.freqs.length + 2;
+        StringBuilder sb = new StringBuilder();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        AcousticFrameWriter writer = new AcousticFrameWriter(binary, columns);
+        Random random = new Random(1528448319L);
+        float[] values = new float[columns];
+        for(int row = 0; row < FAST_COUNT_IN_DATARECORD * 4; row++) {
+            double time = 1528448319.844 + row * 0.125;
+            sb.append(String.format(Locale.ROOT, "%.3f", time));
+            for(int column = 0; column < columns; column++) {
+                String value = String.format(Locale.ROOT, "%.2f", 40 + random.nextGaussian() * 30);
+                values[column] = Float.valueOf(value);
+                sb.append(",").append(value);
+            }
+            sb.append("\n");
+            writer.writeFrame(Double.valueOf(String.format(Locale.ROOT, "%.3f", time)), values);
+        }
+        List<DataBlock> csvData = driver.fastAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        List<DataBlock> binaryData = new ArrayList<>();
+        AcousticFrameReader reader = new AcousticFrameReader(new ByteArrayInputStream(binary.toByteArray()), columns);
+        driver.fastAcousticDataInterface.parseResult(reader, binaryData::add);
+        // 31 values as int16 and the time stamp, instead of about 200 bytes of text
+        assertEquals(70, reader.getFrameSize());
+        assertEquals(4, csvData.size());
+        assertEquals(csvData.size(), binaryData.size());
+        for(int record = 0; record < csvData.size(); record++) {
+            DataBlock expected = csvData.get(record);
+            DataBlock actual = binaryData.get(record);
+            assertEquals(expected.getAtomCount(), actual.getAtomCount());
+            assertEquals(expected.getDoubleValue(0), actual.getDoubleValue(0), 0);
+            for(int i = 1; i < expected.getAtomCount(); i++) {
+                assertEquals(expected.getFloatValue(i), actual.getFloatValue(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCsvByteReader() throws IOException {
+        CsvByteReader reader = new CsvByteReader(new ByteArrayInputStream(
+                "\n1,-0.00,1e3, 2.5 ,abc\r\n\n-7,123456789.125,NaN,0.1,x".getBytes(StandardCharsets.UTF_8)), 4);
+        assertTrue(reader.nextLine());
+        assertEquals(1, reader.nextInt());
+        assertEquals(Float.floatToIntBits(-0.0f), Float.floatToIntBits(reader.nextFloat()));
+        assertEquals(1000, reader.nextDouble(), 0);
+        assertEquals(2.5f, reader.nextFloat(), 0);
+        assertEquals("abc", reader.nextString());
+        assertFalse(reader.hasNextField());
+        assertTrue(reader.nextLine());
+        assertEquals(-7L, reader.nextLong());
+        assertEquals(123456789.125, reader.nextDouble(), 0);
+        assertTrue(Float.isNaN(reader.nextFloat()));
+        assertEquals(Double.valueOf("0.1"), reader.nextDouble(), 0);
+        reader.skipField();
+        assertFalse(reader.nextLine());
+    }
+
+    @Test
+    public void testAcousticRowBuffer() {
+        AcousticRowBuffer buffer = new AcousticRowBuffer(2, 3);
+        int time = 0;
+        int removed = 0;
+        // interleave appends and removals so rows wrap around the end of the arrays, then grow the buffer
+        for(int step = 0; step < 50; step++) {
+            for(int i = 0; i < step % 7; i++) {
+                int slot = buffer.appendRow(time);
+                buffer.setValue(slot, 0, time);
+                buffer.setValue(slot, 1, -time);
+                time++;
+            }
+            buffer.removeFirst(step % 5);
+            removed = Math.min(time, removed + step % 5);
+            assertEquals(time - removed, buffer.size());
+            for(int row = 0; row < buffer.size(); row++) {
+                assertEquals(removed + row, buffer.getTime(row), 0);
+                assertEquals(removed + row, buffer.getValue(row, 0), 0);
+                assertEquals(-(removed + row), buffer.getValue(row, 1), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testParseAcousticSlowBacklog() throws IOException {
+        // station coming back after an outage, records are built in linear time and the tail is carried over
+        StringBuilder sb = new StringBuilder();
+        final int rows = 100003;
+        for(int row = 0; row < rows; row++) {
+            sb.append(1531405786 + row).append(",47.27,40.60\n");
+        }
+        List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        assertEquals(rows / SLOW_COUNT_IN_DATARECORD, data.size());
+        assertEquals(rows % SLOW_COUNT_IN_DATARECORD, driver.slowAcousticDataInterface.getPendingRowCount());
+        assertEquals(1531405786 + rows - rows % SLOW_COUNT_IN_DATARECORD - SLOW_COUNT_IN_DATARECORD,
+                data.get(data.size() - 1).getDoubleValue(0), 0);
+        // complete the pending record
+        data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(new ByteArrayInputStream(
+                "1531505789,47.27,40.60\n1531505790,47.27,40.60\n1531505791,47.27,40.60\n1531505792,47.27,40.60\n1531505793,47.27,40.60\n1531505794,47.27,40.60\n1531505795,47.27,40.60\n".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(1, data.size());
+        assertEquals(1531405786 + rows - rows % SLOW_COUNT_IN_DATARECORD, data.get(0).getDoubleValue(0), 0);
+        assertEquals(0, driver.slowAcousticDataInterface.getPendingRowCount());
+    }
+
+    @Test
+    public void testRowSpool() throws Exception {
+        File spoolDirectory = Files.createTempDirectory("spool").toFile();
+        try {
+            config.spoolDirectory = spoolDirectory.getAbsolutePath();
+            config.deduplicateRows = true;
+            driver.start();
+            // one record and the first rows of the next one
+            StringBuilder sb = new StringBuilder();
+            for(int row = 0; row < SLOW_COUNT_IN_DATARECORD + 3; row++) {
+                sb.append(1531405786 + row).append(",47.27,40.60\n");
+            }
+            List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                    new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+            assertEquals(1, data.size());
+            assertEquals(3, driver.slowAcousticDataInterface.getPendingRowCount());
+            driver.stop();
+            // the restarted station gets the pending rows back, and fetches the rows following the last one
+            NoiseMonitoringSensor restarted = new NoiseMonitoringSensor();
+            restarted.init(config);
+            restarted.start();
+            try {
+                assertEquals(3, restarted.slowAcousticDataInterface.getPendingRowCount());
+                assertEquals(1531405798, restarted.slowAcousticDataInterface.getCursor(), 0);
+                // the pending rows sent again by the station are not appended twice
+                sb = new StringBuilder();
+                for(int row = 10; row < 13; row++) {
+                    sb.append(1531405786 + row).append(",47.27,40.60\n");
+                }
+                data = restarted.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                        new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+                assertEquals(0, data.size());
+                assertEquals(3, restarted.slowAcousticDataInterface.getPendingRowCount());
+                sb = new StringBuilder();
+                for(int row = 13; row < SLOW_COUNT_IN_DATARECORD + 13; row++) {
+                    sb.append(1531405786 + row).append(",48.27,41.60\n");
+                }
+                data = restarted.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                        new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+                assertEquals(1, data.size());
+                assertEquals(1531405796, data.get(0).getDoubleValue(0), 0);
+                assertEquals(3, restarted.slowAcousticDataInterface.getPendingRowCount());
+            } finally {
+                restarted.stop();
+            }
+            // the file grows, and keeps the pending rows when compacted
+            File file = new File(spoolDirectory, "test.spool");
+            AcousticRowBuffer rows = new AcousticRowBuffer(2, 4);
+            RowSpool spool = RowSpool.open(file, 2, 1);
+            for(int row = 0; row < 5; row++) {
+                int slot = rows.appendRow(row);
+                rows.setValue(slot, 0, row + 0.5f);
+                rows.setValue(slot, 1, row + 0.25f);
+                spool.append(rows, rows.size() - 1);
+            }
+            spool.consume(3);
+            spool.close();
+            spool = RowSpool.open(file, 2, 1);
+            assertEquals(2, spool.getPendingRowCount());
+            assertEquals(4, spool.getCursor(), 0);
+            rows.clear();
+            spool.replay(rows);
+            assertEquals(2, rows.size());
+            assertEquals(3, rows.getTime(0), 0);
+            assertEquals(4.25f, rows.getValue(1, 1), 0);
+            spool.consume(2);
+            assertEquals(0, spool.getPendingRowCount());
+            // grown by the backlog, back to its initial size once consumed
+            assertEquals(RowSpool.HEADER_SIZE + 16, file.length());
+            spool.close();
+            // a file shorter than a row, left by a crash while it was extended
+            try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+                truncated.setLength(RowSpool.HEADER_SIZE + 4);
+            }
+            spool = RowSpool.open(file, 2, 0);
+            rows.clear();
+            spool.replay(rows);
+            assertEquals(0, rows.size());
+            for(int row = 0; row < 3; row++) {
+                int slot = rows.appendRow(10 + row);
+                rows.setValue(slot, 0, row);
+                rows.setValue(slot, 1, row);
+                spool.append(rows, rows.size() - 1);
+            }
+            assertEquals(3, spool.getPendingRowCount());
+            spool.close();
+            // rows of another column layout are dropped, and the file truncated
+            spool = RowSpool.open(file, 1, 1);
+            assertEquals(0, spool.getPendingRowCount());
+            spool.close();
+            assertEquals(RowSpool.HEADER_SIZE + 8 + 4, file.length());
+        } finally {
+            for (File file : spoolDirectory.listFiles()) {
+                assertTrue(file.delete());
+            }
+            assertTrue(spoolDirectory.delete());
+        }
+    }
+
+    @Test
+    public void testStopWaitsForParsing() throws Exception {
+        File spoolDirectory = Files.createTempDirectory("spool").toFile();
+        final CountDownLatch sending = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Emulate a slow station, the driver is stopped while the response is parsed
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream outputStream = exchange.getResponseBody();
+                for(int row = 0; row < 5; row++) {
+                    outputStream.write((1531405786 + row + ",47.27,40.60\n").getBytes(StandardCharsets.UTF_8));
+                    outputStream.flush();
+                    sending.countDown();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            config.spoolDirectory = spoolDirectory.getAbsolutePath();
+            config.httpSlowAcousticStationUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+            driver.start();
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            driver.stop();
+            // the spool is closed once the whole response has been parsed
+            assertEquals(1531405790, driver.slowAcousticDataInterface.getCursor(), 0);
+            NoiseMonitoringSensor restarted = new NoiseMonitoringSensor();
+            config.httpSlowAcousticStationUrl = "";
+            restarted.init(config);
+            restarted.start();
+            try {
+                assertEquals(5, restarted.slowAcousticDataInterface.getPendingRowCount());
+            } finally {
+                restarted.stop();
+            }
+        } finally {
+            server.stop(0);
+            for (File file : spoolDirectory.listFiles()) {
+                assertTrue(file.delete());
+            }
+            assertTrue(spoolDirectory.delete());
+        }
+    }
+
+    @Test
+    public void testLevelHistogram() {
+        LevelHistogram histogram = new LevelHistogram();
+        for(int i = 0; i < 100; i++) {
+            histogram.add(30 + i * 0.5);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(74.5, histogram.getLevelExceeded(10), 1e-9);
+        assertEquals(54.5, histogram.getLevelExceeded(50), 1e-9);
+        assertEquals(34.5, histogram.getLevelExceeded(90), 1e-9);
+        assertEquals(79.5, histogram.getMaximum(), 1e-9);
+        assertEquals(30, histogram.getMinimum(), 1e-9);
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getLevelExceeded(50)));
+        histogram.add(42.123);
+        histogram.add(Double.NaN);
+        assertEquals(1, histogram.getCount());
+        assertEquals(42.12, histogram.getLevelExceeded(50), 1e-9);
+        assertEquals(42.12, histogram.getLevelExceeded(10), 1e-9);
+    }
+
+    @Test
+    public void testLevelStatistics() throws Exception {
+        // windows of 60 s, 900 s and 1 h, the first 60 s and 900 s windows start with the first row
+        config.statisticsWindows = Arrays.asList(60, 900, 3600);
+        driver.init(config);
+        final long start = 1531405800;
+        StringBuilder sb = new StringBuilder();
+        for(int row = 0; row < 130; row++) {
+            sb.append(start + row).append(",50.0,").append(String.format(Locale.ROOT, "%.1f", 40 + (row % 60) * 0.1))
+                    .append("\n");
+        }
+        driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        DataBlock record = driver.slowStatisticsOutput.getLatestRecord();
+        assertNotNull(record);
+        assertEquals(start + 60, record.getDoubleValue(0), 0);
+        assertEquals(60, record.getIntValue(1));
+        assertEquals(60, record.getIntValue(2));
+        assertEquals(45.3, record.getDoubleValue(3), 1e-4);
+        assertEquals(42.9, record.getDoubleValue(4), 1e-4);
+        assertEquals(40.5, record.getDoubleValue(5), 1e-4);
+        assertEquals(45.9, record.getDoubleValue(6), 1e-4);
+        assertEquals(40, record.getDoubleValue(7), 1e-4);
+        // a late row is ignored by the 60 s window but still belongs to the current 900 s window
+        List<DataBlock> records = new ArrayList<>();
+        driver.slowStatisticsOutput.addLevel(start, 90, records::add);
+        assertTrue(records.isEmpty());
+        driver.slowStatisticsOutput.addLevel(start + 900, 60, records::add);
+        assertEquals(2, records.size());
+        assertEquals(start + 120, records.get(0).getDoubleValue(0), 0);
+        assertEquals(10, records.get(0).getIntValue(2));
+        assertEquals(start, records.get(1).getDoubleValue(0), 0);
+        assertEquals(900, records.get(1).getIntValue(1));
+        assertEquals(131, records.get(1).getIntValue(2));
+        assertEquals(90, records.get(1).getDoubleValue(6), 1e-4);
+    }
+
+    @Test
+    public void testAggregatedAcoustic() throws Exception {
+        config.spectrumIntervals = Arrays.asList(1, 60);
+        driver.init(config);
+        AggregatedAcousticOutput output = driver.aggregatedOutputs.get(0);
+        assertEquals(1, output.getAverageSamplingPeriod(), 0);
+        int columns = FastAcousticOutput.freqs.length + 2;
+        AcousticRowBuffer rows = new AcousticRowBuffer(columns, 4);
+        List<DataBlock> records = new ArrayList<>();
+        // 8 rows of 125 ms, alternating 60 dB and 70 dB, with a missing band value
+        for(int row = 0; row < 9; row++) {
+            int slot = rows.appendRow(1531405786 + row * 0.125);
+            for(int column = 0; column < columns; column++) {
+                rows.setValue(slot, column, row % 2 == 0 ? 60 : 70);
+            }
+            if(row == 1) {
+                rows.setValue(slot, 5, Float.NaN);
+            }
+            output.addRow(rows, rows.size() - 1, records::add);
+            rows.removeFirst(1);
+        }
+        assertEquals(1, records.size());
+        DataBlock record = records.get(0);
+        assertEquals(1531405786, record.getDoubleValue(0), 0);
+        assertEquals(8, record.getIntValue(1));
+        assertEquals(10 * Math.log10((1e6 + 1e7) / 2), record.getDoubleValue(2), 1e-4);
+        assertEquals(10 * Math.log10((1e6 + 1e7) / 2), record.getDoubleValue(3), 1e-4);
+        assertEquals(10 * Math.log10((4 * 1e6 + 3 * 1e7) / 7), record.getDoubleValue(5 + 2), 1e-4);
+        assertEquals(10 * Math.log10((1e6 + 1e7) / 2), record.getDoubleValue(columns + 1), 1e-4);
+    }
+
+    @Test
+    public void testDownsamplingPyramid() throws Exception {
+        // levels of 1 s, 10 s, 1 min, 10 min and 1 h
+        config.pyramidLevels = Arrays.asList(1, 10, 60, 600, 3600);
+        driver.init(config);
+        AcousticRowBuffer rows = new AcousticRowBuffer(FastAcousticOutput.freqs.length + 2, 4);
+        final List<DataBlock> records = new ArrayList<>();
+        final List<Integer> levels = new ArrayList<>();
+        ObjIntConsumer<DataBlock> consumer = new ObjIntConsumer<DataBlock>() {
+            @Override
+            public void accept(DataBlock dataBlock, int level) {
+                records.add(dataBlock);
+                levels.add(level);
+            }
+        };
+        final long start = 1531405800;
+        // 20 s of 125 ms rows, the laeq peaks once in the first 10 s
+        for(int row = 0; row <= 160; row++) {
+            int slot = rows.appendRow(start + row * 0.125);
+            rows.setValue(slot, 0, 60);
+            rows.setValue(slot, 1, row == 3 ? 80 : 50);
+            driver.fastPyramid.addRow(rows, rows.size() - 1, consumer);
+            rows.removeFirst(1);
+        }
+        assertEquals(22, records.size());
+        assertEquals(20, Collections.frequency(levels, 0));
+        assertEquals(2, Collections.frequency(levels, 1));
+        // the 10 s bucket is published right after its last 1 s bucket
+        assertEquals(1, (int) levels.get(10));
+        DataBlock bucket = records.get(10);
+        assertEquals(start, bucket.getDoubleValue(0), 0);
+        assertEquals(80, bucket.getIntValue(1));
+        assertEquals(60, bucket.getDoubleValue(2), 1e-4);
+        assertEquals(60, bucket.getDoubleValue(3), 0);
+        assertEquals(60, bucket.getDoubleValue(4), 0);
+        assertEquals(10 * Math.log10((79 * 1e5 + 1e8) / 80), bucket.getDoubleValue(5), 1e-4);
+        assertEquals(50, bucket.getDoubleValue(6), 0);
+        assertEquals(80, bucket.getDoubleValue(7), 0);
+        bucket = records.get(21);
+        assertEquals(start + 10, bucket.getDoubleValue(0), 0);
+        assertEquals(50, bucket.getDoubleValue(5), 1e-4);
+        assertEquals(50, bucket.getDoubleValue(7), 0);
+        // the next rows close the coarser levels
+        records.clear();
+        levels.clear();
+        int slot = rows.appendRow(start + 3600);
+        rows.setValue(slot, 0, 60);
+        rows.setValue(slot, 1, 50);
+        driver.fastPyramid.addRow(rows, rows.size() - 1, consumer);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), levels);
+        assertEquals(161, records.get(4).getIntValue(1));
+        assertEquals(80, records.get(4).getDoubleValue(7), 0);
+    }
+
+    @Test
+    public void testExceedance() throws Exception {
+        // thresholds of 65 and 80 dB(A), 3 dB of hysteresis and 1 s of minimum duration
+        config.exceedanceThresholds = Arrays.asList(65.0, 80.0);
+        driver.init(config);
+        List<DataBlock> events = new ArrayList<>();
+        ExceedanceDetector detector = driver.fastExceedanceDetector;
+        final double start = 1531405800;
+        // short peak, shorter than the minimum duration
+        float[] levels = new float[] {50, 70, 70, 60, 70, 70, 70, 70, 70, 70, 70, 70, 85, 70, 63, 62, 61, 50};
+        for(int row = 0; row < levels.length; row++) {
+            detector.addLevel(start + row * 0.125, levels[row], events::add);
+        }
+        assertEquals(2, events.size());
+        DataBlock event = events.get(0);
+        assertEquals(start + 12 * 0.125, event.getDoubleValue(0), 1e-6);
+        assertEquals(driver.fastAcousticDataInterface.getName(), event.getStringValue(1));
+        assertEquals(ExceedanceOutput.EVENT_START, event.getStringValue(2));
+        assertEquals(65, event.getDoubleValue(3), 0);
+        assertEquals(start + 4 * 0.125, event.getDoubleValue(4), 1e-6);
+        assertEquals(1, event.getDoubleValue(5), 1e-6);
+        assertEquals(85, event.getDoubleValue(6), 0);
+        // the level stays in the hysteresis band until 61 dB(A)
+        event = events.get(1);
+        assertEquals(ExceedanceOutput.EVENT_END, event.getStringValue(2));
+        assertEquals(start + 16 * 0.125, event.getDoubleValue(0), 1e-6);
+        assertEquals(1.5, event.getDoubleValue(5), 1e-6);
+        assertEquals(85, event.getDoubleValue(6), 0);
+        // the slow rows are checked as soon as they are parsed
+        driver.slowAcousticDataInterface.parseResult(new CsvByteReader(new ByteArrayInputStream(
+                "1531405786,90,81\n1531405787,90,82\n".getBytes(StandardCharsets.UTF_8))));
+        event = driver.exceedanceOutput.getLatestRecord();
+        assertNotNull(event);
+        assertEquals(driver.slowAcousticDataInterface.getName(), event.getStringValue(1));
+        assertEquals(ExceedanceOutput.EVENT_START, event.getStringValue(2));
+        assertEquals(80, event.getDoubleValue(3), 0);
+        assertEquals(82, event.getDoubleValue(6), 0);
+        // before the record of 10 rows is complete
+        assertEquals(2, driver.slowAcousticDataInterface.getPendingRowCount());
+    }
+
+    @Test
+    public void testRecycleDataBlocks() throws Exception {
+        config.recycleDataBlocks = true;
+        // the same rows are parsed twice
+        config.deduplicateRows = false;
+        NoiseMonitoringSensor recycling = new NoiseMonitoringSensor();
+        recycling.init(config);
+        final SlowAcousticOutput output = recycling.slowAcousticDataInterface;
+        final List<DataBlock> published = new ArrayList<>();
+        Consumer<DataBlock> consumer = new Consumer<DataBlock>() {
+            @Override
+            public void accept(DataBlock dataBlock) {
+                published.add(dataBlock);
+                output.recordPublisher.accept(dataBlock);
+                // a consumer storing a copy of the records
+                output.releaseRecord(dataBlock);
+            }
+        };
+        StringBuilder sb = new StringBuilder();
+        for(int row = 0; row < 4 * SLOW_COUNT_IN_DATARECORD; row++) {
+            sb.append(1531405786 + row).append(",47.27,").append(40 + row).append("\n");
+        }
+        output.parseResult(new CsvByteReader(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))),
+                consumer);
+        assertEquals(4, published.size());
+        // a released block is reused once a newer record has been published
+        assertSame(published.get(0), published.get(2));
+        assertSame(published.get(1), published.get(3));
+        assertSame(published.get(3), output.getLatestRecord());
+        // a record is never recycled while its consumer has not released it
+        final List<DataBlock> kept = new ArrayList<>();
+        output.parseResult(new CsvByteReader(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))),
+                new Consumer<DataBlock>() {
+                    @Override
+                    public void accept(DataBlock dataBlock) {
+                        kept.add(dataBlock);
+                        output.recordPublisher.accept(dataBlock);
+                    }
+                });
+        assertEquals(4, kept.size());
+        assertSame(published.get(2), kept.get(0));
+        assertEquals(4, new HashSet<>(kept).size());
+        assertEquals(1531405786 + 3 * SLOW_COUNT_IN_DATARECORD, output.getLatestRecord().getDoubleValue(0), 0);
+        assertEquals(40 + 4 * SLOW_COUNT_IN_DATARECORD - 1, output.getLatestRecord().getDoubleValue(
+                output.getLatestRecord().getAtomCount() - 1), 1e-4);
+        // without recycling each record has its own block
+        List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        assertEquals(4, data.size());
+        assertNotSame(data.get(0), data.get(2));
+        // the values of a record are in a single float array, column after column
+        float[] values = DataBlockPool.getValues(data.get(1));
+        assertNotNull(values);
+        assertEquals(2 * SLOW_COUNT_IN_DATARECORD, values.length);
+        assertEquals(47.27f, values[0], 0);
+        assertEquals(40 + SLOW_COUNT_IN_DATARECORD, values[SLOW_COUNT_IN_DATARECORD], 0);
+        assertEquals(1531405786 + SLOW_COUNT_IN_DATARECORD, data.get(1).getDoubleValue(0), 0);
+    }
+
+    @Test
+    public void testSampleLineReader() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("1531405786,").append(String.join("", Collections.nCopies(10, "QUJD"))).append("\r\n");
+        sb.append("\n");
+        sb.append("1531405787.5,").append(String.join("", Collections.nCopies(60, "QUJD"))).append("\n");
+        sb.append("1531405788,RUZH");
+        byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        InFlightBudget budget = InFlightBudget.acquire(1000, 1);
+        try {
+            int available = budget.getAvailableBytes();
+            // chunks smaller than the lines, the second line is too long
+            SampleLineReader reader = new SampleLineReader(new ByteArrayInputStream(body), 7, budget, 100, 1000);
+            assertTrue(reader.nextLine());
+            assertEquals(1531405786, reader.getTime(), 0);
+            assertEquals(String.join("", Collections.nCopies(10, "QUJD")), reader.getPayload());
+            // the bytes read for the line, carriage return included, stay reserved until the next line
+            assertEquals(available - 41, budget.getAvailableBytes());
+            assertTrue(reader.nextLine());
+            assertEquals(1531405788, reader.getTime(), 0);
+            assertEquals("RUZH", reader.getPayload());
+            assertEquals(1, reader.getSkippedLineCount());
+            assertEquals(available - 4, budget.getAvailableBytes());
+            assertFalse(reader.nextLine());
+            assertEquals(available, budget.getAvailableBytes());
+            // the reader fails when the other readers hold the budget
+            assertTrue(budget.reserve(available - 20, 0));
+            reader = new SampleLineReader(new ByteArrayInputStream(body), 7, budget, 100, 50);
+            try {
+                reader.nextLine();
+                assertTrue("budget must be exhausted", false);
+            } catch (IOException ex) {
+                // expected
+            } finally {
+                reader.freeLine();
+            }
+            budget.free(available - 20);
+            assertEquals(available, budget.getAvailableBytes());
+            // the payload ends at the next column, the later columns are neither reserved nor kept
+            reader = new SampleLineReader(new ByteArrayInputStream(
+                    "1531405789,RUZH,12,abc\r\n1531405790,QUJD\n".getBytes(StandardCharsets.UTF_8)), 5, budget, 100,
+                    1000);
+            assertTrue(reader.nextLine());
+            assertEquals("RUZH", reader.getPayload());
+            assertEquals(available - 4, budget.getAvailableBytes());
+            assertTrue(reader.nextLine());
+            assertEquals(1531405790, reader.getTime(), 0);
+            assertEquals("QUJD", reader.getPayload());
+            assertFalse(reader.nextLine());
+            assertEquals(available, budget.getAvailableBytes());
+            // a line already received is skipped before its payload is reserved, the budget left only fits one line
+            assertTrue(budget.reserve(available - 4, 0));
+            reader = new SampleLineReader(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), 7,
+                    budget, 100, 50, new DoublePredicate() {
+                        @Override
+                        public boolean test(double time) {
+                            return time < 1531405788;
+                        }
+                    });
+            try {
+                assertTrue(reader.nextLine());
+                assertEquals("RUZH", reader.getPayload());
+                assertEquals(0, reader.getSkippedLineCount());
+                assertFalse(reader.nextLine());
+            } finally {
+                reader.freeLine();
+            }
+            budget.free(available - 4);
+            assertEquals(available, budget.getAvailableBytes());
+        } finally {
+            InFlightBudget.release();
+        }
+        // each concurrent reader gets an equal share of the budget for its line
+        budget = InFlightBudget.acquire(1000, 4);
+        try {
+            assertEquals(250, budget.getMaxLineLength());
+        } finally {
+            InFlightBudget.release();
+        }
+        // the samples output publishes one record per line, the default maximum length fits the long line
+        driver.samplesAcousticDataInterface.readResponse(new ByteArrayInputStream(body), "text/csv");
+        assertEquals(3, driver.samplesAcousticDataInterface.getMetrics().getRowCount());
+        assertEquals("RUZH", driver.samplesAcousticDataInterface.getLatestRecord().getStringValue(1));
+        assertEquals(1531405788, driver.samplesAcousticDataInterface.getCursor(), 0);
+    }
+
+    @Test
+    public void testSamplesBlobStore() throws Exception {
+        File blobDirectory = Files.createTempDirectory("blobs").toFile();
+        try {
+            config.samplesBlobDirectory = blobDirectory.getAbsolutePath();
+            NoiseMonitoringSensor blobDriver = new NoiseMonitoringSensor();
+            blobDriver.init(config);
+            blobDriver.start();
+            SamplesAcousticOutput output = blobDriver.samplesAcousticDataInterface;
+            String payload = String.join("", Collections.nCopies(1000, "QUJD"));
+            byte[] body = ("1531405786," + payload + "\n1531405787,RUZH\n1531405788," + payload + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            try {
+                output.readResponse(new ByteArrayInputStream(body), "text/csv");
+                DataBlock record = output.getLatestRecord();
+                assertEquals(1531405788, record.getDoubleValue(0), 0);
+                assertEquals(4000, record.getIntValue(1));
+                String hash = record.getStringValue(2);
+                assertEquals(64, hash.length());
+                // the same payload is stored once
+                assertEquals(BlobStore.getSegmentName(0) + ":0", record.getStringValue(3));
+                ByteBuffer samples = output.readSamples(hash);
+                byte[] read = new byte[samples.remaining()];
+                samples.get(read);
+                assertEquals(payload, new String(read, StandardCharsets.US_ASCII));
+            } finally {
+                blobDriver.stop();
+            }
+            // the index is read again on restart
+            BlobStore store = BlobStore.open(new File(blobDirectory, output.getStorageName()), 1024);
+            try {
+                assertEquals(2, store.size());
+                BlobStore.Blob blob = store.put("RUZH".getBytes(StandardCharsets.US_ASCII), 0, 4);
+                assertEquals(4000, blob.getOffset());
+                // the segment is full, a new one is started
+                blob = store.put("SUpL".getBytes(StandardCharsets.US_ASCII), 0, 4);
+                assertEquals(BlobStore.getSegmentName(1), blob.getSegmentName());
+                assertEquals(0, blob.getOffset());
+                ByteBuffer buffer = store.read(blob.getHash());
+                assertEquals(4, buffer.remaining());
+                assertEquals('S', buffer.get(0));
+                assertNull(store.read("unknown"));
+            } finally {
+                store.close();
+            }
+            // an index entry left incomplete by a crash is ignored
+            File bucket = new File(new File(blobDirectory, output.getStorageName()), BlobStore.getBucketName(
+                    Integer.parseInt(hashOf("SUpL").substring(0, 2), 16)));
+            Files.write(bucket.toPath(), new byte[5], StandardOpenOption.APPEND);
+            store = BlobStore.open(new File(blobDirectory, output.getStorageName()), 1024);
+            try {
+                assertEquals(3, store.size());
+                assertEquals(BlobStore.getSegmentName(1), store.get(hashOf("SUpL")).getSegmentName());
+            } finally {
+                store.close();
+            }
+            // payloads of the same bucket, more than its initial slots can hold
+            List<String> payloads = new ArrayList<>();
+            for (int i = 0; payloads.size() < 100; i++) {
+                if (hashOf("payload" + i).startsWith("00")) {
+                    payloads.add("payload" + i);
+                }
+            }
+            File grownDirectory = new File(blobDirectory, "grown");
+            store = BlobStore.open(grownDirectory, 1 << 20);
+            try {
+                for (String line : payloads) {
+                    store.put(line.getBytes(StandardCharsets.US_ASCII), 0, line.length());
+                }
+                // the same payloads are found and not stored again
+                for (String line : payloads) {
+                    store.put(line.getBytes(StandardCharsets.US_ASCII), 0, line.length());
+                }
+                assertEquals(100, store.size());
+            } finally {
+                store.close();
+            }
+            assertFalse(new File(grownDirectory, BlobStore.getBucketName(0) + ".tmp").exists());
+            store = BlobStore.open(grownDirectory, 1 << 20);
+            try {
+                long offset = 0;
+                for (String line : payloads) {
+                    BlobStore.Blob blob = store.get(hashOf(line));
+                    assertNotNull(line, blob);
+                    assertEquals(offset, blob.getOffset());
+                    offset += line.length();
+                }
+                assertNull(store.get(hashOf("payload")));
+            } finally {
+                store.close();
+            }
+        } finally {
+            for (File directory : blobDirectory.listFiles()) {
+                for (File file : directory.listFiles()) {
+                    assertTrue(file.delete());
+                }
+                assertTrue(directory.delete());
+            }
+            assertTrue(blobDirectory.delete());
+        }
+    }
+
+    private static String hashOf(String payload) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(payload.getBytes(StandardCharsets.US_ASCII))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRowDeduplicator() {
+        RowDeduplicator deduplicator = new RowDeduplicator(1);
+        assertFalse(deduplicator.isDuplicate(100));
+        deduplicator.markReceived(100);
+        deduplicator.markReceived(102);
+        assertTrue(deduplicator.isDuplicate(100));
+        assertTrue(deduplicator.isDuplicate(100.2));
+        // late row in the window
+        assertFalse(deduplicator.isDuplicate(101));
+        deduplicator.markReceived(101);
+        assertTrue(deduplicator.isDuplicate(101));
+        assertFalse(deduplicator.isDuplicate(103));
+        // the ring bit of key 100 is shared with key 100 + WINDOW, it is cleared when the mark moves past it
+        deduplicator.markReceived(100 + RowDeduplicator.WINDOW + 1);
+        assertFalse(deduplicator.isDuplicate(100 + RowDeduplicator.WINDOW));
+        assertTrue(deduplicator.isDuplicate(102));
+        // rows older than the window are considered received
+        assertTrue(deduplicator.isDuplicate(101));
+        assertTrue(deduplicator.isLate(101));
+        assertFalse(deduplicator.isLate(102));
+        assertEquals(100 + RowDeduplicator.WINDOW + 1, deduplicator.getHighWaterMark(), 0);
+        // rows received before a restart
+        deduplicator = new RowDeduplicator(1);
+        deduplicator.markReceivedUpTo(500);
+        assertTrue(deduplicator.isDuplicate(499));
+        assertTrue(deduplicator.isDuplicate(500));
+        assertFalse(deduplicator.isDuplicate(501));
+        // a gap over several words of the bitmap clears every key in between
+        deduplicator.markReceived(700);
+        for (int key = 501; key < 700; key++) {
+            assertFalse(deduplicator.isDuplicate(key));
+        }
+        assertTrue(deduplicator.isDuplicate(500));
+        assertTrue(deduplicator.isDuplicate(700));
+    }
+
+    @Test
+    public void testDuplicateRows() throws Exception {
+        config.deduplicateRows = true;
+        driver.init(config);
+        // overlapping responses, the second one repeats the last 5 rows of the first one
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        for(int row = 0; row < 15; row++) {
+            first.append(1531405786 + row).append(",47.27,40.60\n");
+        }
+        for(int row = 10; row < 25; row++) {
+            second.append(1531405786 + row).append(",47.27,40.60\n");
+        }
+        List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(first.toString().getBytes(StandardCharsets.UTF_8))));
+        assertEquals(1, data.size());
+        data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(second.toString().getBytes(StandardCharsets.UTF_8))));
+        assertEquals(1, data.size());
+        assertEquals(1531405796, data.get(0).getDoubleValue(0), 0);
+        assertEquals(5, driver.slowAcousticDataInterface.getPendingRowCount());
+        assertEquals(5, driver.slowAcousticDataInterface.getMetrics().getDuplicateRowCount());
+        assertEquals(25, driver.slowAcousticDataInterface.getMetrics().getRowCount());
+        // weather rows received after a retry, time stamps are in milliseconds
+        String weather = "1528201993328,52.08,24.64,58.1\n1528201994328,52.08,24.64,58.1\n";
+        assertEquals(2, driver.weatherDataInterface.parseResult(new BufferedReader(new StringReader(weather))).size());
+        assertEquals(0, driver.weatherDataInterface.parseResult(new BufferedReader(new StringReader(weather))).size());
+        assertEquals(2, driver.weatherDataInterface.getMetrics().getDuplicateRowCount());
+        // a truncated row is accepted once the station sends it again in full
+        try {
+            driver.weatherDataInterface.parseResult(new BufferedReader(new StringReader("1528201995328,52.08\n")));
+            fail("The truncated row must not be parsed");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+        assertEquals(1528201994328., driver.weatherDataInterface.getCursor(), 0);
+        assertEquals(1, driver.weatherDataInterface.parseResult(new BufferedReader(new StringReader(
+                "1528201995328,52.08,24.64,58.1\n"))).size());
+        // re-delivered sample lines are not published again
+        byte[] samples = "1531405786,QUJD\n1531405846,RUZH\n".getBytes(StandardCharsets.UTF_8);
+        driver.samplesAcousticDataInterface.readResponse(new ByteArrayInputStream(samples), "text/csv");
+        driver.samplesAcousticDataInterface.readResponse(new ByteArrayInputStream(samples), "text/csv");
+        assertEquals(2, driver.samplesAcousticDataInterface.getMetrics().getRowCount());
+        assertEquals(2, driver.samplesAcousticDataInterface.getMetrics().getDuplicateRowCount());
+        // a row older than the window is dropped and counted apart
+        assertEquals(0, driver.slowAcousticDataInterface.parseResult(new CsvByteReader(new ByteArrayInputStream(
+                "1531403786,47.27,40.60\n".getBytes(StandardCharsets.UTF_8)))).size());
+        assertEquals(5, driver.slowAcousticDataInterface.getMetrics().getDuplicateRowCount());
+        assertEquals(1, driver.slowAcousticDataInterface.getMetrics().getLateRowCount());
+        assertEquals(5, driver.slowAcousticDataInterface.getPendingRowCount());
+    }
+
     @Test
     public void testParseWeather() throws IOException {
         StringReader stringReader = new StringReader("1528201993328,52.08,24.64,58.1\n");
@@ -163,10 +1054,9 @@ public class TestNoiseMonitoring
                 "1531405830,52.71,47.51\n" +
                 "1531405831,50.41,44.65\n" +
                 "1531405832,52.08,46.41";
-        List<String> slowResults = new ArrayList<>(Arrays.asList(res.split("\n")));
-        assertEquals(47, slowResults.size());
-        List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(slowResults);
-        assertEquals(47 % SLOW_COUNT_IN_DATARECORD, slowResults.size());
+        List<DataBlock> data = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(
+                new ByteArrayInputStream(res.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(47 % SLOW_COUNT_IN_DATARECORD, driver.slowAcousticDataInterface.getPendingRowCount());
         assertEquals(47 / SLOW_COUNT_IN_DATARECORD, data.size());
         DataBlock dataBlock = data.get(0);
         assertEquals(1531405786, dataBlock.getDoubleValue(0), 1e-2);
@@ -178,6 +1068,660 @@ public class TestNoiseMonitoring
         assertEquals(46.99, dataBlock.getDoubleValue(SLOW_COUNT_IN_DATARECORD + 3), 1e-2);
     }
 
+    @Test
+    public void testPollingSchedulerShared() throws Exception {
+        PollingScheduler first = PollingScheduler.acquire(2);
+        PollingScheduler second = PollingScheduler.acquire(1);
+        try {
+            assertSame(first, second);
+            final CountDownLatch runs = new CountDownLatch(3);
+            ScheduledFuture<?> task = first.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    runs.countDown();
+                }
+            }, 0, 10, TimeUnit.MILLISECONDS);
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            task.cancel(false);
+            assertTrue(first.getExecutionCount() >= 3);
+            assertTrue(first.getPoolSize() <= 2);
+        } finally {
+            PollingScheduler.release();
+            PollingScheduler.release();
+        }
+        assertNotSame(first, PollingScheduler.acquire(1));
+        PollingScheduler.release();
+    }
+
+    @Test
+    public void testFetchEngineKeepAlive() throws Exception {
+        // the same row is fetched twice
+        config.deduplicateRows = false;
+        final byte[] body = "1528201993328,52.08,24.64,58.1\n".getBytes(StandardCharsets.UTF_8);
+        final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/weather", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        HttpFetchEngine fetchEngine = HttpFetchEngine.acquire(1);
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/weather";
+            final List<DataBlock> data = new ArrayList<>();
+            for(int i = 0; i < 2; i++) {
+                fetchEngine.fetch(url, 5000, new HttpFetchEngine.ResponseHandler() {
+                    @Override
+                    public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException {
+                        data.addAll(driver.weatherDataInterface.parseResult(new BufferedReader(new InputStreamReader(inputStream))));
+                    }
+                }).get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(2, data.size());
+            assertEquals(1528201993328., data.get(1).getDoubleValue(0), 1e-2);
+            // Second request must reuse the connection of the first one
+            assertEquals(2, clientPorts.size());
+            assertEquals(clientPorts.get(0), clientPorts.get(1));
+        } finally {
+            HttpFetchEngine.release();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFetchEngineCompression() throws Exception {
+        // the same rows are fetched with each encoding
+        config.deduplicateRows = false;
+        StringBuilder sb = new StringBuilder();
+        for(int row = 0; row < 1000; row++) {
+            sb.append(1531405786 + row).append(",47.27,40.60\n");
+        }
+        final byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestURI().getQuery();
+                String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                OutputStream outputStream = compressed;
+                if(accepted != null && accepted.contains(encoding)) {
+                    exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                    outputStream = encoding.equals("gzip") ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed);
+                }
+                outputStream.write(body);
+                outputStream.close();
+                exchange.sendResponseHeaders(200, compressed.size());
+                exchange.getResponseBody().write(compressed.toByteArray());
+                exchange.close();
+            }
+        });
+        server.start();
+        HttpFetchEngine fetchEngine = HttpFetchEngine.acquire(1);
+        try {
+            for(String encoding : new String[] {"gzip", "deflate"}) {
+                for(boolean compression : new boolean[] {true, false}) {
+                    final List<DataBlock> data = new ArrayList<>();
+                    HttpFetchEngine.FetchResult result = fetchEngine.fetch("http://127.0.0.1:" +
+                            server.getAddress().getPort() + "/slow?" + encoding, 5000, compression,
+                            new HttpFetchEngine.ResponseHandler() {
+                                @Override
+                                public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException {
+                                    data.addAll(driver.slowAcousticDataInterface.parseResult(new CsvByteReader(inputStream)));
+                                }
+                            }).get(10, TimeUnit.SECONDS);
+                    assertEquals(100, data.size());
+                    assertEquals(body.length, result.getContentBytes());
+                    if(compression) {
+                        assertEquals(encoding, result.getContentEncoding());
+                        assertTrue(result.getWireBytes() < body.length / 4);
+                    } else {
+                        assertEquals(body.length, result.getWireBytes());
+                    }
+                }
+            }
+        } finally {
+            HttpFetchEngine.release();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFetchEngineReleased() throws Exception {
+        HttpFetchEngine fetchEngine = HttpFetchEngine.acquire(1);
+        HttpFetchEngine.release();
+        // a poll running while the station is stopped must not leave its request pending forever
+        CompletableFuture<HttpFetchEngine.FetchResult> future = fetchEngine.fetch("http://127.0.0.1:1/weather", 5000,
+                new HttpFetchEngine.ResponseHandler() {
+                    @Override
+                    public void onResponse(HttpURLConnection connection, InputStream inputStream) {
+                        fail("The request must not be sent");
+                    }
+                });
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testFetchLanes() throws Exception {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final byte[] body = "1528201993328,52.08,24.64,58.1\n".getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().startsWith("/stalled")) {
+                    try {
+                        stalled.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        };
+        server.createContext("/stalled", handler);
+        server.createContext("/weather", handler);
+        server.start();
+        HttpFetchEngine fetchEngine = HttpFetchEngine.acquire(1);
+        HttpFetchEngine.FetchLane stalledLane = fetchEngine.openLane(1);
+        HttpFetchEngine.FetchLane lane = fetchEngine.openLane(1);
+        try {
+            // the pool has a thread for each lane
+            assertEquals(2, fetchEngine.getMaximumPoolSize());
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+            HttpFetchEngine.ResponseHandler drain = new HttpFetchEngine.ResponseHandler() {
+                @Override
+                public void onResponse(HttpURLConnection connection, InputStream inputStream) throws IOException {
+                    while (inputStream.read() >= 0) {
+                        // skip the body
+                    }
+                }
+            };
+            List<CompletableFuture<HttpFetchEngine.FetchResult>> stalledFutures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                stalledFutures.add(stalledLane.fetch(url + "/stalled", 10000, false, null, drain));
+            }
+            // the stalled station holds a single thread, its other requests wait in its lane
+            assertEquals(2, stalledLane.getWaitingCount());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(body.length, lane.fetch(url + "/weather", 5000, false, null, drain)
+                        .get(5, TimeUnit.SECONDS).getContentBytes());
+            }
+            assertFalse(stalledFutures.get(0).isDone());
+            stalled.countDown();
+            for (CompletableFuture<HttpFetchEngine.FetchResult> future : stalledFutures) {
+                assertEquals(body.length, future.get(10, TimeUnit.SECONDS).getContentBytes());
+            }
+            assertEquals(0, stalledLane.getWaitingCount());
+        } finally {
+            stalled.countDown();
+            fetchEngine.closeLane(lane);
+            fetchEngine.closeLane(stalledLane);
+            HttpFetchEngine.release();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testIncrementalFetch() throws Exception {
+        final long[] rows = new long[] {1528201993328L, 1528201994328L, 1528201995328L, 1528201996328L, 1528201997328L};
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/weather", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Emulate a station returning rows after the cursor, page by page
+                String query = exchange.getRequestURI().getQuery();
+                queries.add(query);
+                long since = Long.MIN_VALUE;
+                int limit = Integer.MAX_VALUE;
+                for(String parameter : query.split("&")) {
+                    String[] keyValue = parameter.split("=");
+                    if(keyValue[0].equals("since")) {
+                        since = Long.valueOf(keyValue[1]);
+                    } else if(keyValue[0].equals("limit")) {
+                        limit = Integer.valueOf(keyValue[1]);
+                    }
+                }
+                StringBuilder sb = new StringBuilder();
+                for(int i = 0; i < rows.length && limit > 0; i++) {
+                    if(rows[i] > since) {
+                        sb.append(rows[i]).append(",52.08,24.64,58.1\n");
+                        limit--;
+                    }
+                }
+                byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            config.httpWeatherStationUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/weather";
+            config.incrementalFetch = true;
+            config.pageSize = 2;
+            driver.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (driver.weatherDataInterface.getCursor() != rows[rows.length - 1] && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(rows[rows.length - 1], driver.weatherDataInterface.getCursor(), 1e-2);
+            // 3 pages, the last one being incomplete
+            assertEquals(Arrays.asList("limit=2", "limit=2&since=1528201994328", "limit=2&since=1528201996328"),
+                    queries.subList(0, 3));
+        } finally {
+            driver.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testIncrementalFetchCursorIgnored() throws Exception {
+        final byte[] body = "1528201993328,52.08,24.64,58.1\n1528201994328,52.08,24.64,58.1\n".getBytes(StandardCharsets.UTF_8);
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/weather", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Emulate a station always returning the same full page
+                queries.add(exchange.getRequestURI().getQuery());
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            config.httpWeatherStationUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/weather";
+            config.incrementalFetch = true;
+            config.pageSize = 2;
+            driver.start();
+            Thread.sleep(500);
+            // the second page did not move the cursor, paging stops until the next poll
+            assertEquals(Arrays.asList("limit=2", "limit=2&since=1528201994328"), queries);
+        } finally {
+            driver.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testAdaptivePollDelay() {
+        config.adaptivePolling = true;
+        config.minPollingPeriod = 1000;
+        config.maxPollingPeriod = 20000;
+        FastAcousticOutput output = driver.fastAcousticDataInterface;
+        output.resetPollDelay();
+        assertEquals(5000, output.getPollDelay());
+        // growing responses, poll sooner down to the minimum
+        assertEquals(2500, output.nextPollDelay(40));
+        assertEquals(1250, output.nextPollDelay(400));
+        assertEquals(1000, output.nextPollDelay(4000));
+        // backlog drained, back to the station data rate
+        assertEquals(5000, output.nextPollDelay(40));
+        assertEquals(5000, output.nextPollDelay(40));
+        // nothing new or station down, back off up to the maximum
+        assertEquals(10000, output.nextPollDelay(0));
+        assertEquals(20000, output.nextPollDelay(0));
+        assertEquals(20000, output.nextPollDelay(0));
+        // data is back
+        assertEquals(10000, output.nextPollDelay(10));
+        // weather period is clamped to the maximum
+        driver.weatherDataInterface.resetPollDelay();
+        assertEquals(20000, driver.weatherDataInterface.getPollDelay());
+    }
+
+    @Test
+    public void testAdaptivePolling() throws Exception {
+        StationSimulator simulator = new StationSimulator(1, 2);
+        try {
+            simulator.addBacklog(60000);
+            config.httpFastAcousticStationUrl = simulator.getUrl(0, StationSimulator.FAST);
+            config.adaptivePolling = true;
+            config.minPollingPeriod = 50;
+            driver.start();
+            // the backlog response is followed by a poll before the 5 s period
+            long deadline = System.currentTimeMillis() + 4000;
+            while (simulator.getStation(0).getRequestCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, simulator.getStation(0).getRequestCount());
+            assertTrue(simulator.getStation(0).getServedRows() >= 480);
+            // the second response is smaller, back to the station data rate
+            deadline = System.currentTimeMillis() + 1000;
+            while (driver.fastAcousticDataInterface.getPollDelay() != 5000 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(5000, driver.fastAcousticDataInterface.getPollDelay());
+        } finally {
+            driver.stop();
+            simulator.close();
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch end = new CountDownLatch(1);
+        final IngestMetrics metrics = driver.slowAcousticDataInterface.getMetrics();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add(exchange.getRequestURI().getQuery());
+                assertTrue(exchange.getRequestHeaders().getFirst("Accept").contains("text/event-stream"));
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                // chunked response
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream outputStream = exchange.getResponseBody();
+                long first = queries.size() == 1 ? 1531405786 : 1531405796;
+                try {
+                    outputStream.write(": heartbeat\n\n".getBytes(StandardCharsets.UTF_8));
+                    for (int i = 0; i < SLOW_COUNT_IN_DATARECORD; i++) {
+                        outputStream.write(String.format(Locale.ROOT, "id: %d\ndata: %d,47.27,40.60\n\n",
+                                first + i, first + i).getBytes(StandardCharsets.UTF_8));
+                        outputStream.flush();
+                    }
+                    // the record is published while the connection is still open
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (metrics.getRecordCount() < queries.size() && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(10);
+                    }
+                    if (queries.size() > 1) {
+                        end.await(10, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // the first stream is cut
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        try {
+            config.httpSlowAcousticStationUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+            config.streaming = true;
+            driver.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (metrics.getRecordCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, metrics.getRecordCount());
+            assertEquals(20, metrics.getRowCount());
+            // the second connection resumes after the last row
+            assertEquals(null, queries.get(0));
+            assertEquals("since=1531405795", queries.get(1));
+            assertEquals(1531405805, driver.slowAcousticDataInterface.getCursor(), 0);
+        } finally {
+            end.countDown();
+            driver.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testEventStream() throws IOException {
+        String events = ": heartbeat\r\n\r\nevent: row\r\ndata: 1531405786,47.27,40.60\r\nid: 1\r\n\r\ndata:1531405787,47.46,40.76\n\nretry: 1000\n";
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new EventStreamInputStream(new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8)))));
+        assertEquals("1531405786,47.27,40.60", reader.readLine());
+        assertEquals("1531405787,47.46,40.76", reader.readLine());
+        assertEquals(null, reader.readLine());
+    }
+
+    @Test
+    public void testIngestMetrics() throws Exception {
+        final byte[] body = "1528201993328,52.08,24.64,58.1\n1528201994328,52.08,24.64,58.1\n1528201995328,52.08,24.64,58.1\n"
+                .getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/weather", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            config.httpWeatherStationUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/weather";
+            config.httpCompression = false;
+            driver.start();
+            IngestMetrics metrics = driver.weatherDataInterface.getMetrics();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (metrics.getWireBytes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            List<AbstractHttpOutput> outputs = driver.getHttpOutputs();
+            assertSame(driver.weatherDataInterface, outputs.get(0));
+            DataBlock[] records = driver.metricsOutput.collect(outputs, 1528201996);
+            assertEquals(outputs.size(), records.length);
+            DataBlock weather = records[0];
+            assertEquals(1528201996, weather.getDoubleValue(0), 0);
+            assertEquals("weather", weather.getStringValue(1));
+            // requests, failures, skipped polls
+            assertEquals(1, weather.getIntValue(2));
+            assertEquals(0, weather.getIntValue(3));
+            assertEquals(0, weather.getIntValue(4));
+            assertTrue(weather.getDoubleValue(5) > 0);
+            // wire and content bytes
+            assertEquals(body.length, weather.getLongValue(6));
+            assertEquals(body.length, weather.getLongValue(7));
+            // rows and records
+            assertEquals(3, weather.getIntValue(8));
+            assertEquals(3, weather.getIntValue(9));
+            // next record only holds the increase
+            weather = driver.metricsOutput.collect(outputs, 1528201997)[0];
+            assertEquals(0, weather.getIntValue(2));
+            assertEquals(0, weather.getLongValue(6));
+            assertEquals(0, weather.getIntValue(9));
+        } finally {
+            driver.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMultiplexedResponse() throws IOException {
+        // the same response is read twice
+        config.deduplicateRows = false;
+        String response = "ignored\n" +
+                "#slow\n" +
+                "1531405786,47.27,40.60\n" +
+                "1531405787,47.46,40.76\n" +
+                "#unknown\n" +
+                "1,2,3\n" +
+                "#weather\n" +
+                "1528201993328,52.08,24.64,58.1\n" +
+                "not a number,52.08,24.64,58.1\n" +
+                "#state\n" +
+                "1528201993328,85.5,1,2";
+        MultiplexedResponseReader reader = new MultiplexedResponseReader(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("slow", reader.nextSection());
+        List<DataBlock> slow = driver.slowAcousticDataInterface.parseResult(new CsvByteReader(reader.getSectionStream()));
+        assertEquals(0, slow.size());
+        assertEquals(2, driver.slowAcousticDataInterface.getPendingRowCount());
+        assertEquals("unknown", reader.nextSection());
+        // unread rows are skipped
+        assertEquals("weather", reader.nextSection());
+        assertEquals("1528201993328,52.08,24.64,58.1",
+                new BufferedReader(new InputStreamReader(reader.getSectionStream())).readLine());
+        assertEquals("state", reader.nextSection());
+        assertEquals(1, driver.stateOutput.parseResult(new BufferedReader(new InputStreamReader(reader.getSectionStream()))).size());
+        assertEquals(null, reader.nextSection());
+
+        // a parse error only drops the rest of its section
+        Map<AbstractHttpOutput, Long> sectionBytes = driver.multiplexedPoller.readResponse(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), 0);
+        assertEquals(4, driver.slowAcousticDataInterface.getPendingRowCount());
+        assertEquals(1, driver.weatherDataInterface.getMetrics().getRowCount());
+        assertEquals(1, driver.weatherDataInterface.getMetrics().getFailureCount());
+        assertEquals(1, driver.stateOutput.getMetrics().getRecordCount());
+        // the wire bytes of the combined response are split between the outputs
+        assertEquals(3, sectionBytes.size());
+        assertEquals(46, (long) sectionBytes.get(driver.slowAcousticDataInterface));
+        long contentBytes = 0;
+        for (long bytes : sectionBytes.values()) {
+            contentBytes += bytes;
+        }
+        MultiplexedPoller.attributeBytes(contentBytes / 2, sectionBytes);
+        long wireBytes = 0;
+        for (AbstractHttpOutput output : sectionBytes.keySet()) {
+            assertEquals((long) sectionBytes.get(output), output.getMetrics().getContentBytes());
+            assertEquals(sectionBytes.get(output) / 2.0, output.getMetrics().getWireBytes(), 1);
+            wireBytes += output.getMetrics().getWireBytes();
+        }
+        assertEquals(contentBytes / 2, wireBytes, 1);
+        assertEquals(0, driver.fastAcousticDataInterface.getMetrics().getWireBytes());
+    }
+
+    @Test
+    public void testParseTimeExcludesReads() throws IOException {
+        // a streamed response waits for the station between the rows
+        InputStream slowStream = new ByteArrayInputStream("1528201993328,85.5,1,2\n".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        driver.stateOutput.parseResponse(slowStream, "text/csv", 0);
+        IngestMetrics metrics = driver.stateOutput.getMetrics();
+        assertEquals(1, metrics.getRowCount());
+        assertTrue(metrics.getParseTime() < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testMultiplexedPolling() throws Exception {
+        StationSimulator simulator = new StationSimulator(1, 2);
+        try {
+            simulator.addBacklog(120000);
+            config.httpStationUrl = simulator.getUrl(0, StationSimulator.ALL);
+            config.httpWeatherStationUrl = simulator.getUrl(0, StationSimulator.WEATHER);
+            config.fastValuesPerDataRecord = FAST_COUNT_IN_DATARECORD;
+            driver.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            // wait for the last row of each stream
+            long[] minimumRows = new long[] {2, 119, 952, 11, 2};
+            List<AbstractHttpOutput> outputs = driver.getHttpOutputs();
+            for (int i = 0; i < outputs.size(); i++) {
+                while (outputs.get(i).getMetrics().getRowCount() < minimumRows[i] && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            // one request fed every output
+            assertEquals(1, simulator.getStation(0).getRequestCount());
+            assertEquals(2, driver.weatherDataInterface.getMetrics().getRowCount());
+            assertEquals(960, driver.fastAcousticDataInterface.getMetrics().getRowCount(), 8);
+            assertEquals(120, driver.slowAcousticDataInterface.getMetrics().getRowCount(), 1);
+            assertEquals(12, driver.samplesAcousticDataInterface.getMetrics().getRowCount(), 1);
+            assertEquals(2, driver.stateOutput.getMetrics().getRowCount());
+        } finally {
+            driver.stop();
+            simulator.close();
+        }
+    }
+
+    @Test
+    public void testFleet() throws Exception {
+        StationSimulator simulator = new StationSimulator(3, 2);
+        NoiseMonitoringFleet fleet = new NoiseMonitoringFleet();
+        try {
+            simulator.addBacklog(20000);
+            NoiseMonitoringFleetConfig fleetConfig = new NoiseMonitoringFleetConfig();
+            fleetConfig.id = UUID.randomUUID().toString();
+            for(int i = 0; i < simulator.getStationCount(); i++) {
+                NoiseMonitoringConfig stationConfig = new NoiseMonitoringConfig();
+                stationConfig.serialNumber = "B8-27-EB-74-CD-A" + i;
+                stationConfig.httpFastAcousticStationUrl = simulator.getUrl(i, StationSimulator.FAST);
+                stationConfig.httpSlowAcousticStationUrl = simulator.getUrl(i, StationSimulator.SLOW);
+                stationConfig.httpWeatherStationUrl = "";
+                stationConfig.httpSamplesAcousticStationUrl = "";
+                stationConfig.fastValuesPerDataRecord = FAST_COUNT_IN_DATARECORD;
+                stationConfig.spectrumIntervals = Collections.singletonList(60);
+                fleetConfig.stations.add(stationConfig);
+            }
+            fleet.init(fleetConfig);
+            List<NoiseMonitoringSensor> stations = fleet.getStations();
+            assertEquals(3, stations.size());
+            // each station keeps its identity and its own outputs
+            assertEquals("urn:osh:sensor:noisemonitoring:B8-27-EB-74-CD-A1", stations.get(1).getUniqueIdentifier());
+            assertEquals("station_B8_27_EB_74_CD_A1_acoustic_fast", stations.get(1).fastAcousticDataInterface.getName());
+            assertNotSame(stations.get(0).fastAcousticDataInterface, stations.get(1).fastAcousticDataInterface);
+            // the derived outputs are exposed by the fleet too
+            assertSame(stations.get(1).aggregatedOutputs.get(0), fleet.getAllOutputs().get("station_B8_27_EB_74_CD_A1_acoustic_fast_60s"));
+            assertSame(stations.get(1).metricsOutput, fleet.getAllOutputs().get("station_B8_27_EB_74_CD_A1_ingest_metrics"));
+            fleet.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            for(NoiseMonitoringSensor station : stations) {
+                while (Double.isNaN(station.fastAcousticDataInterface.getCursor()) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertFalse(Double.isNaN(station.fastAcousticDataInterface.getCursor()));
+            }
+            // stations share the hub pools
+            assertSame(stations.get(0).getFetchEngine(), stations.get(2).getFetchEngine());
+            assertSame(stations.get(0).getScheduler(), stations.get(2).getScheduler());
+        } finally {
+            fleet.stop();
+            simulator.close();
+        }
+    }
+
+    @Test(expected = SensorHubException.class)
+    public void testFleetDuplicateStation() throws Exception {
+        NoiseMonitoringFleetConfig fleetConfig = new NoiseMonitoringFleetConfig();
+        fleetConfig.id = UUID.randomUUID().toString();
+        fleetConfig.stations.add(new NoiseMonitoringConfig());
+        fleetConfig.stations.add(new NoiseMonitoringConfig());
+        new NoiseMonitoringFleet().init(fleetConfig);
+    }
+
+    @Test
+    public void testLoadSimulator() throws Exception {
+        StationSimulator simulator = new StationSimulator(4, 4);
+        try {
+            // stations come back from a 20 s outage, except the last one still down
+            simulator.addBacklog(20000);
+            simulator.getStation(2).setResponseDelay(200);
+            simulator.getStation(3).setOutage(true);
+            LoadHarness harness = new LoadHarness(simulator, new Consumer<NoiseMonitoringConfig>() {
+                @Override
+                public void accept(NoiseMonitoringConfig stationConfig) {
+                    stationConfig.fastValuesPerDataRecord = FAST_COUNT_IN_DATARECORD;
+                }
+            });
+            LoadHarness.Report report = harness.run(1500, 100);
+            // at least the 160 fast rows of the backlog of each running station
+            assertTrue(report.getRows() >= 3 * 160);
+            assertEquals(1, report.getStationsWithoutData());
+            assertTrue(report.getMaximumLag() < 10);
+            for(int i = 0; i < 3; i++) {
+                assertFalse(Double.isNaN(harness.getSensors().get(i).fastAcousticDataInterface.getCursor()));
+            }
+            assertTrue(simulator.getStation(3).getFailureCount() > 0);
+            assertEquals(0, simulator.getStation(3).getServedRows());
+        } finally {
+            simulator.close();
+        }
+    }
+
     @After
     public void cleanup()
     {